@@ -0,0 +1,157 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The ChunkedOutputStream class writes a response body with the chunked
+ * transfer coding, so a response can be sent before its length is known. Each
+ * chunk goes to the channel as one gathering write of its size line, its
+ * payload and the closing CRLF, without assembling them in another buffer.
+ * Small writes are gathered in a chunk buffer first, while a write of at least
+ * {@link #DIRECT_THRESHOLD} bytes becomes a chunk of its own, sent straight
+ * from the caller's array.
+ * <p>
+ * The channel may keep the written buffers until they reach the socket, as the
+ * {@link NioServer} front end does, so a full chunk buffer is handed over and
+ * replaced instead of reused, and arrays written directly must not be modified
+ * afterwards. Closing the stream writes the last chunk but leaves the channel
+ * open for the next response.
+ */
+public class ChunkedOutputStream extends OutputStream {
+
+    /** Writes of at least this many bytes are sent without being copied. */
+    public static final int DIRECT_THRESHOLD = 4096;
+
+    private static final int CHUNK_SIZE = 8192;
+    private static final byte[] CRLF = "\r\n".getBytes(StandardCharsets.ISO_8859_1);
+    private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+
+    private final GatheringByteChannel channel;
+    private final ByteBuffer[] parts = new ByteBuffer[3];
+    private byte[] buffer;
+    private int count;
+    private boolean closed;
+
+    /**
+     * Creates a stream writing chunks to a channel. The response head, with its
+     * "Transfer-Encoding: chunked" header, must already be written.
+     *
+     * @param channel The channel to write the chunks to.
+     */
+    public ChunkedOutputStream(GatheringByteChannel channel) {
+        this.channel = channel;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        if (buffer == null) {
+            buffer = new byte[CHUNK_SIZE];
+        } else if (count == buffer.length) {
+            flushBuffer();
+            buffer = new byte[CHUNK_SIZE];
+        }
+        buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if (len >= DIRECT_THRESHOLD) {
+            flushBuffer();
+            writeChunk(ByteBuffer.wrap(b, off, len));
+            return;
+        }
+        while (len > 0) {
+            if (buffer == null) {
+                buffer = new byte[CHUNK_SIZE];
+            } else if (count == buffer.length) {
+                flushBuffer();
+                buffer = new byte[CHUNK_SIZE];
+            }
+            int length = Math.min(len, buffer.length - count);
+            System.arraycopy(b, off, buffer, count, length);
+            count += length;
+            off += length;
+            len -= length;
+        }
+    }
+
+    /**
+     * Sends the buffered bytes as a chunk, so the client gets everything
+     * written so far.
+     *
+     * @throws IOException If an I/O error occurs while writing the chunk.
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        flushBuffer();
+    }
+
+    /**
+     * Sends the buffered bytes and the last, empty, chunk. The channel stays
+     * open.
+     *
+     * @throws IOException If an I/O error occurs while writing the chunks.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        flushBuffer();
+        closed = true;
+        ByteBuffer lastChunk = ByteBuffer.wrap(LAST_CHUNK);
+        while (lastChunk.hasRemaining()) {
+            channel.write(lastChunk);
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if (count > 0) {
+            writeChunk(ByteBuffer.wrap(buffer, 0, count));
+            // The channel may still hold the buffer, a new one is allocated on demand
+            buffer = null;
+            count = 0;
+        }
+    }
+
+    private void writeChunk(ByteBuffer payload) throws IOException {
+        if (!payload.hasRemaining()) {
+            // An empty chunk would end the body
+            return;
+        }
+        parts[0] = ByteBuffer.wrap(sizeLine(payload.remaining()));
+        parts[1] = payload;
+        parts[2] = ByteBuffer.wrap(CRLF);
+        int first = 0;
+        while (first < parts.length) {
+            channel.write(parts, first, parts.length - first);
+            while (first < parts.length && !parts[first].hasRemaining()) {
+                first++;
+            }
+        }
+    }
+
+    /** Encodes the chunk size in hexadecimal followed by CRLF. */
+    private static byte[] sizeLine(int size) {
+        int digits = (32 - Integer.numberOfLeadingZeros(size) + 3) / 4;
+        byte[] line = new byte[digits + 2];
+        for (int i = digits - 1; i >= 0; i--) {
+            line[i] = (byte) Character.forDigit(size & 0xf, 16);
+            size >>>= 4;
+        }
+        line[digits] = '\r';
+        line[digits + 1] = '\n';
+        return line;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+}
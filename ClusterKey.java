@@ -0,0 +1,114 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * The ClusterKey class authenticates the requests the nodes of a cluster
+ * forward to each other. A node forwarding a guess adds a
+ * {@link HttpRequest#FORWARDED_HEADER} header holding the time and an
+ * HMAC-SHA256, under the key every node shares, of that time and the session
+ * cookie. A node only plays a guess for a session it does not own when the
+ * header is valid and at most {@value #MAX_AGE_MILLIS} ms old, so a client
+ * cannot make one up, whatever address it connects from.
+ * <p>
+ * The key file holds the key on its first line, in base64, at least 16 bytes.
+ *
+ * <pre>
+ * header value : time in milliseconds, '.', first 16 bytes of the HMAC in URL-safe base64
+ * </pre>
+ */
+public final class ClusterKey {
+
+    private static final long MAX_AGE_MILLIS = 60000;
+    private static final int MAC_LENGTH = 16;
+    private static final int MIN_KEY_LENGTH = 16;
+
+    // Only cloned, a Mac is not thread-safe
+    private final Mac prototype;
+
+    /**
+     * Reads the key shared by the nodes.
+     *
+     * @param keyFile The key file.
+     * @throws IOException If the key file cannot be read or holds no valid key.
+     */
+    public ClusterKey(String keyFile) throws IOException {
+        List<String> lines = Files.readAllLines(Paths.get(keyFile), StandardCharsets.US_ASCII);
+        byte[] key;
+        try {
+            key = lines.isEmpty() ? new byte[0] : Base64.getDecoder().decode(lines.get(0).trim());
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid cluster key in " + keyFile);
+        }
+        if (key.length < MIN_KEY_LENGTH) {
+            throw new IOException("The cluster key of " + keyFile + " must be at least " + MIN_KEY_LENGTH
+                    + " bytes");
+        }
+        try {
+            prototype = Mac.getInstance("HmacSHA256");
+            prototype.init(new SecretKeySpec(key, "HmacSHA256"));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns the header line marking a forwarded request.
+     *
+     * @param session The session cookie of the request.
+     * @param now     The current time in milliseconds.
+     * @return The {@link HttpRequest#FORWARDED_HEADER} line, ending with CRLF.
+     */
+    public byte[] headerLine(String session, long now) {
+        return (HttpRequest.FORWARDED_HEADER + ": " + now + '.' + mac(session, now) + "\r\n")
+                .getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Tells whether a {@link HttpRequest#FORWARDED_HEADER} value was made by a
+     * node holding the key, for this session and recently.
+     *
+     * @param value   The header value.
+     * @param session The session cookie of the request.
+     * @param now     The current time in milliseconds.
+     * @return true if the value is valid.
+     */
+    public boolean verify(String value, String session, long now) {
+        int dot = value.indexOf('.');
+        if (dot <= 0) {
+            return false;
+        }
+        long time;
+        try {
+            time = Long.parseLong(value.substring(0, dot));
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        if (Math.abs(now - time) > MAX_AGE_MILLIS) {
+            return false;
+        }
+        // In constant time, so the MAC cannot be guessed byte after byte
+        return MessageDigest.isEqual(mac(session, time).getBytes(StandardCharsets.US_ASCII),
+                value.substring(dot + 1).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private String mac(String session, long time) {
+        Mac mac;
+        try {
+            mac = (Mac) prototype.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] digest = mac.doFinal((time + " " + (session == null ? "" : session))
+                .getBytes(StandardCharsets.ISO_8859_1));
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(Arrays.copyOf(digest, MAC_LENGTH));
+    }
+}
@@ -0,0 +1,227 @@
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * The Compression class negotiates and applies the gzip and deflate content
+ * codings. Static content is compressed once with the best compression, while
+ * dynamic bodies are compressed per response with the fastest level, and only
+ * when they are big enough to be worth it. A body made of a fixed start and
+ * end around a generated part can be compressed in parts, so only the
+ * generated part is compressed per response.
+ */
+public class Compression {
+
+    /** No content coding. */
+    public static final int IDENTITY = 0;
+    /** The gzip content coding. */
+    public static final int GZIP = 1;
+    /** The deflate content coding, which is the zlib format. */
+    public static final int DEFLATE = 2;
+
+    /** Dynamic bodies smaller than this are sent uncompressed. */
+    public static final int THRESHOLD = 1024;
+
+    /** Pre-encoded "Vary: Accept-Encoding" header line. */
+    public static final byte[] VARY_ACCEPT_ENCODING = ascii("Vary: Accept-Encoding\r\n");
+
+    private static final byte[][] CONTENT_ENCODING_HEADERS = {
+            null,
+            ascii("Content-Encoding: gzip\r\n"),
+            ascii("Content-Encoding: deflate\r\n") };
+
+    private static final byte[] GZIP_HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+    // 32K window, no dictionary, default level, with the check bits
+    private static final byte[] ZLIB_HEADER = { 0x78, (byte) 0x9c };
+
+    /**
+     * Picks the coding to use for a response, gzip first.
+     *
+     * @param request The parsed request.
+     * @return {@link #GZIP}, {@link #DEFLATE} or {@link #IDENTITY}.
+     */
+    public static int negotiate(HttpRequest request) {
+        if (request.acceptsGzip()) {
+            return GZIP;
+        }
+        if (request.acceptsDeflate()) {
+            return DEFLATE;
+        }
+        return IDENTITY;
+    }
+
+    /**
+     * Returns the Content-Encoding header line for a coding.
+     *
+     * @param encoding The coding.
+     * @return The header line, or null for {@link #IDENTITY}.
+     */
+    public static byte[] contentEncodingHeader(int encoding) {
+        return CONTENT_ENCODING_HEADERS[encoding];
+    }
+
+    /**
+     * Compresses bytes with the given coding.
+     *
+     * @param bytes    The bytes to compress.
+     * @param encoding {@link #GZIP} or {@link #DEFLATE}.
+     * @param level    The Deflater level.
+     * @return The compressed bytes.
+     */
+    public static byte[] compress(byte[] bytes, int encoding, int level) {
+        boolean gzip = encoding == GZIP;
+        // gzip is a raw deflate stream between a fixed header and a CRC trailer
+        Deflater deflater = new Deflater(level, gzip);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 3 + 64);
+            if (gzip) {
+                out.write(GZIP_HEADER, 0, GZIP_HEADER.length);
+            }
+            deflater.setInput(bytes);
+            deflater.finish();
+            byte[] chunk = new byte[8192];
+            while (!deflater.finished()) {
+                int length = deflater.deflate(chunk);
+                out.write(chunk, 0, length);
+            }
+            if (gzip) {
+                CRC32 crc = new CRC32();
+                crc.update(bytes);
+                writeIntLE(out, (int) crc.getValue());
+                writeIntLE(out, bytes.length);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Compresses the start of a body that is compressed in parts: the coding
+     * header followed by the bytes, compressed and flushed to a byte boundary
+     * without ending the compressed stream. Parts compressed by
+     * {@link #compressNext} and {@link #compressEnd} can follow, then the
+     * {@link #trailer}, so a part that never changes is compressed only once.
+     *
+     * @param bytes    The first bytes of the body.
+     * @param encoding {@link #GZIP} or {@link #DEFLATE}.
+     * @param level    The Deflater level.
+     * @return The compressed bytes.
+     */
+    public static byte[] compressStart(byte[] bytes, int encoding, int level) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 3 + 64);
+        if (encoding == GZIP) {
+            out.write(GZIP_HEADER, 0, GZIP_HEADER.length);
+        } else {
+            out.write(ZLIB_HEADER, 0, ZLIB_HEADER.length);
+        }
+        deflate(bytes, level, false, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Compresses a part in the middle of a body compressed in parts, flushed
+     * to a byte boundary so another part can follow.
+     *
+     * @param bytes The bytes of the part.
+     * @param level The Deflater level.
+     * @return The compressed bytes, the same for both codings.
+     */
+    public static byte[] compressNext(byte[] bytes, int level) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2 + 16);
+        deflate(bytes, level, false, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Compresses the last part of a body compressed in parts and ends the
+     * compressed stream. Only the {@link #trailer} follows.
+     *
+     * @param bytes The last bytes of the body.
+     * @param level The Deflater level.
+     * @return The compressed bytes, the same for both codings.
+     */
+    public static byte[] compressEnd(byte[] bytes, int level) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 3 + 16);
+        deflate(bytes, level, true, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Returns the trailer ending a body compressed in parts: the CRC-32 and the
+     * length for gzip, the Adler-32 for deflate, of all the uncompressed parts.
+     * Checksums cannot be combined, but they run at memory speed, far cheaper
+     * than compressing the same bytes again.
+     *
+     * @param encoding {@link #GZIP} or {@link #DEFLATE}.
+     * @param parts    The uncompressed parts of the body, in order.
+     * @return The trailer.
+     */
+    public static byte[] trailer(int encoding, byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(8);
+        if (encoding == GZIP) {
+            CRC32 crc = new CRC32();
+            int length = 0;
+            for (byte[] part : parts) {
+                crc.update(part);
+                length += part.length;
+            }
+            writeIntLE(out, (int) crc.getValue());
+            writeIntLE(out, length);
+        } else {
+            Adler32 adler = new Adler32();
+            for (byte[] part : parts) {
+                adler.update(part);
+            }
+            int value = (int) adler.getValue();
+            // zlib stores it big-endian
+            out.write(value >>> 24);
+            out.write(value >>> 16);
+            out.write(value >>> 8);
+            out.write(value);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Appends the raw deflate blocks of the bytes, ending the stream or with a
+     * sync flush, which closes the last block on a byte boundary and sets no
+     * final bit, so independently compressed parts can be concatenated. No
+     * part refers back to the bytes of another.
+     */
+    private static void deflate(byte[] bytes, int level, boolean last, ByteArrayOutputStream out) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            deflater.setInput(bytes);
+            byte[] chunk = new byte[8192];
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    out.write(chunk, 0, deflater.deflate(chunk));
+                }
+            } else {
+                int length;
+                do {
+                    // A full chunk means the flush may not be complete
+                    length = deflater.deflate(chunk, 0, chunk.length, Deflater.SYNC_FLUSH);
+                    out.write(chunk, 0, length);
+                } while (length == chunk.length);
+            }
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static void writeIntLE(ByteArrayOutputStream out, int value) {
+        out.write(value);
+        out.write(value >>> 8);
+        out.write(value >>> 16);
+        out.write(value >>> 24);
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,177 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The FeedbackMatrix class gives the score of any guess of the dictionary
+ * against any word to find, as {@link WordleScorer#score} computes it, read
+ * from a file where every pair was scored once, for the analyses and hints that
+ * score the same pairs again and again.
+ * <p>
+ * The file, {@value #FILE} by default, starts with a header of
+ * {@value #HEADER_SIZE} bytes: the magic bytes "WRDM", the format version, the
+ * word count and the {@link WordleDictionary#hash hash} of the dictionary it
+ * was computed from. Then comes one byte per pair, row by row: the score of the
+ * guess of index g against the word of index a is at
+ * {@code HEADER_SIZE + g * count + a}. For the 14855 words, that is 220 million
+ * bytes. The file is memory-mapped, so a score is one byte read from the page
+ * cache, shared by every process mapping the file, and opening it reads only
+ * the header. A file computed from other words is refused.
+ * <p>
+ * The file is written by {@link #main}, with the rows shared out in blocks
+ * between threads, one per core by default, each row scored by
+ * {@link WordleScorer#scoreAll} and each block written in place with a
+ * positional write.
+ */
+public final class FeedbackMatrix {
+
+    /** The matrix file, next to the dictionary file. */
+    public static final String FILE = "patterns.bin";
+
+    private static final int MAGIC = 0x5752444D;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    // Rows scored and written at once by a thread, 1 MB for 14855 words
+    private static final int BLOCK_ROWS = 64;
+
+    private final ByteBuffer cells;
+    private final int size;
+
+    /**
+     * Maps a matrix file.
+     *
+     * @param file The file.
+     * @throws IOException If the file cannot be mapped, is not a matrix or was
+     *                     computed from other words than the dictionary.
+     */
+    public FeedbackMatrix(String file) throws IOException {
+        size = WordleDictionary.size();
+        long length = HEADER_SIZE + (long) size * size;
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Dictionary too large for a feedback matrix");
+        }
+        try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+            if (channel.size() != length) {
+                throw new IOException(file + " is not a feedback matrix of " + size + " words");
+            }
+            // The mapping stays valid once the channel is closed
+            cells = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+        }
+        if (cells.getInt(0) != MAGIC || cells.getInt(4) != VERSION || cells.getInt(8) != size) {
+            throw new IOException(file + " is not a feedback matrix of version " + VERSION);
+        }
+        if (cells.getInt(12) != WordleDictionary.hash()) {
+            throw new IOException(file + " was computed from other words, run java FeedbackMatrix again");
+        }
+    }
+
+    /**
+     * Returns the score of a guess against a word to find.
+     *
+     * @param guessIndex  The {@link WordleDictionary} index of the guess.
+     * @param answerIndex The {@link WordleDictionary} index of the word to find.
+     * @return The score, from 0 to {@value WordleScorer#ALL_GREEN}.
+     */
+    public int score(int guessIndex, int answerIndex) {
+        return cells.get(HEADER_SIZE + guessIndex * size + answerIndex) & 0xff;
+    }
+
+    /**
+     * Returns the scores of a guess against every word to find.
+     *
+     * @param guessIndex The {@link WordleDictionary} index of the guess.
+     * @return A read-only view of the scores, one byte per word by index.
+     */
+    public ByteBuffer row(int guessIndex) {
+        return cells.slice(HEADER_SIZE + guessIndex * size, size);
+    }
+
+    /**
+     * Scores every pair of words of the dictionary and writes the matrix file,
+     * in place of the previous one at once.
+     *
+     * @param args The file to write, {@value #FILE} by default, and the number
+     *             of threads, the number of cores by default.
+     * @throws IOException If the file cannot be written.
+     */
+    public static void main(String[] args) throws IOException {
+        String file = args.length > 0 ? args[0] : FILE;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        long start = System.nanoTime();
+        write(Paths.get(file), threads);
+        System.out.printf("%d x %d scores written to %s in %.1f s with %d threads%n", WordleDictionary.size(),
+                WordleDictionary.size(), file, (System.nanoTime() - start) / 1e9, threads);
+    }
+
+    private static void write(Path path, int threads) throws IOException {
+        int size = WordleDictionary.size();
+        if (HEADER_SIZE + (long) size * size > Integer.MAX_VALUE) {
+            throw new IOException("Dictionary too large for a feedback matrix");
+        }
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION).putInt(size)
+                    .putInt(WordleDictionary.hash()).flip();
+            writeFully(channel, header, 0);
+            AtomicInteger nextRow = new AtomicInteger();
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            try {
+                List<Future<Void>> tasks = new ArrayList<>();
+                for (int i = 0; i < threads; i++) {
+                    tasks.add(pool.submit(() -> writeRows(channel, nextRow, size)));
+                }
+                for (Future<Void> task : tasks) {
+                    task.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while writing " + path);
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof IOException ? (IOException) e.getCause()
+                        : new IOException(e.getCause());
+            } finally {
+                pool.shutdownNow();
+            }
+            channel.force(true);
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** Scores and writes blocks of rows until every row is taken. */
+    private static Void writeRows(FileChannel channel, AtomicInteger nextRow, int size) throws IOException {
+        int[] answers = new int[size];
+        for (int i = 0; i < size; i++) {
+            answers[i] = WordleDictionary.code(i);
+        }
+        byte[] block = new byte[BLOCK_ROWS * size];
+        int first;
+        while ((first = nextRow.getAndAdd(BLOCK_ROWS)) < size) {
+            int rows = Math.min(BLOCK_ROWS, size - first);
+            for (int row = 0; row < rows; row++) {
+                WordleScorer.scoreAll(answers[first + row], answers, size, block, row * size);
+            }
+            writeFully(channel, ByteBuffer.wrap(block, 0, rows * size), HEADER_SIZE + (long) first * size);
+        }
+        return null;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer bytes, long position) throws IOException {
+        while (bytes.hasRemaining()) {
+            position += channel.write(bytes, position);
+        }
+    }
+}
@@ -0,0 +1,243 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.List;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * The GameCookieSealer class seals a {@link PackedGame} into a cookie value, so
+ * the client carries its own game and any server instance holding the keys can
+ * answer a guess without looking anything up. The game is encrypted and
+ * authenticated with AES-GCM: a player can neither read the word to find nor
+ * change the guesses. A sealed game also carries the time it was sealed, and
+ * is refused once older than the session lifetime.
+ * <p>
+ * Keys are numbered so they can be rotated. The key file holds one key per
+ * line, {@code <id> <base64 key>} with an id from 0 to 255 and a 16 or 32 byte
+ * AES key; the first line is the key sealing new cookies, the following ones
+ * only open cookies sealed before a rotation. The file is read again when it
+ * changes, at most once per second, so a new key can be put first while the
+ * previous one stays listed for one session lifetime.
+ * <p>
+ * Nothing is stored on the server, so a player can replay an older cookie of
+ * the same game to take back guesses.
+ *
+ * <pre>
+ * byte  0     : key id, also authenticated
+ * bytes 1-12  : random GCM nonce
+ * bytes 13-56 : encrypted packed game (24 bytes) and seal time in seconds
+ *               (4 bytes), followed by the 16-byte GCM tag
+ * </pre>
+ */
+public class GameCookieSealer {
+
+    private static final int NONCE_LENGTH = 12;
+    private static final int TAG_BITS = 128;
+    private static final int PLAIN_LENGTH = 8 * PackedGame.STATE_LONGS + 4;
+    private static final int SEALED_LENGTH = 1 + NONCE_LENGTH + PLAIN_LENGTH + TAG_BITS / 8;
+    private static final long RELOAD_CHECK_INTERVAL_MILLIS = 1000;
+
+    private static final ThreadLocal<Cipher> CIPHERS = ThreadLocal.withInitial(() -> {
+        try {
+            return Cipher.getInstance("AES/GCM/NoPadding");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+    // Shared by every thread: a generator per thread would be seeded again for
+    // every connection of the virtual mode, for a few nonces each
+    private static final SecureRandom NONCES = newRandom();
+
+    private final Path keyFile;
+    private final long maxAgeMillis;
+    private volatile KeyRing keys;
+    private volatile long checkedAt;
+
+    /**
+     * Creates a sealer with a random key, for a single server instance.
+     *
+     * @param maxAgeMillis The age after which a sealed game is refused.
+     */
+    public GameCookieSealer(long maxAgeMillis) {
+        byte[] key = new byte[16];
+        new SecureRandom().nextBytes(key);
+        this.keyFile = null;
+        this.maxAgeMillis = maxAgeMillis;
+        this.keys = new KeyRing(null);
+        keys.add(0, key);
+    }
+
+    /**
+     * Creates a sealer with the keys of a key file, shared by every server
+     * instance.
+     *
+     * @param keyFile      The key file.
+     * @param maxAgeMillis The age after which a sealed game is refused.
+     * @throws IOException If the key file cannot be read or holds no valid key.
+     */
+    public GameCookieSealer(String keyFile, long maxAgeMillis) throws IOException {
+        this.keyFile = Paths.get(keyFile);
+        this.maxAgeMillis = maxAgeMillis;
+        this.keys = readKeys(this.keyFile);
+        this.checkedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Seals a game with the current key.
+     *
+     * @param state The packed game.
+     * @return The cookie value, URL-safe base64.
+     */
+    public String seal(long[] state) {
+        KeyRing ring = currentKeys();
+        byte[] sealed = new byte[SEALED_LENGTH];
+        sealed[0] = (byte) ring.currentId;
+        byte[] nonce = new byte[NONCE_LENGTH];
+        NONCES.nextBytes(nonce);
+        System.arraycopy(nonce, 0, sealed, 1, NONCE_LENGTH);
+        ByteBuffer plain = ByteBuffer.allocate(PLAIN_LENGTH);
+        for (int i = 0; i < PackedGame.STATE_LONGS; i++) {
+            plain.putLong(state[i]);
+        }
+        plain.putInt((int) (System.currentTimeMillis() / 1000));
+        try {
+            Cipher cipher = CIPHERS.get();
+            cipher.init(Cipher.ENCRYPT_MODE, ring.keys[ring.currentId], new GCMParameterSpec(TAG_BITS, nonce));
+            cipher.updateAAD(sealed, 0, 1);
+            cipher.doFinal(plain.array(), 0, PLAIN_LENGTH, sealed, 1 + NONCE_LENGTH);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(sealed);
+    }
+
+    /**
+     * Opens a sealed game.
+     *
+     * @param cookie The cookie value.
+     * @param state  Receives the packed game.
+     * @return true if the cookie was sealed by a known key, is intact and is
+     *         not expired.
+     */
+    public boolean open(String cookie, long[] state) {
+        if (cookie == null || cookie.length() != (SEALED_LENGTH * 8 + 5) / 6) {
+            return false;
+        }
+        byte[] sealed;
+        try {
+            sealed = Base64.getUrlDecoder().decode(cookie);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        KeyRing ring = currentKeys();
+        SecretKeySpec key = ring.keys[sealed[0] & 0xff];
+        if (sealed.length != SEALED_LENGTH || key == null) {
+            return false;
+        }
+        byte[] plain;
+        try {
+            Cipher cipher = CIPHERS.get();
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, sealed, 1, NONCE_LENGTH));
+            cipher.updateAAD(sealed, 0, 1);
+            plain = cipher.doFinal(sealed, 1 + NONCE_LENGTH, SEALED_LENGTH - 1 - NONCE_LENGTH);
+        } catch (GeneralSecurityException e) {
+            // Forged, altered, or sealed with a key that was replaced
+            return false;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(plain);
+        for (int i = 0; i < PackedGame.STATE_LONGS; i++) {
+            state[i] = buffer.getLong();
+        }
+        long sealedAt = (buffer.getInt() & 0xffffffffL) * 1000;
+        return System.currentTimeMillis() - sealedAt < maxAgeMillis
+                && PackedGame.targetIndex(state) < WordleDictionary.size();
+    }
+
+    private KeyRing currentKeys() {
+        long now = System.currentTimeMillis();
+        if (keyFile == null || now - checkedAt < RELOAD_CHECK_INTERVAL_MILLIS) {
+            return keys;
+        }
+        synchronized (this) {
+            if (now - checkedAt >= RELOAD_CHECK_INTERVAL_MILLIS) {
+                checkedAt = now;
+                try {
+                    if (!Files.getLastModifiedTime(keyFile).equals(keys.modified)) {
+                        keys = readKeys(keyFile);
+                    }
+                } catch (IOException e) {
+                    // Keep the keys already loaded until the file is fixed
+                    System.out.println("Problem : " + e.getMessage());
+                }
+            }
+            return keys;
+        }
+    }
+
+    private static KeyRing readKeys(Path keyFile) throws IOException {
+        FileTime modified = Files.getLastModifiedTime(keyFile);
+        List<String> lines = Files.readAllLines(keyFile, StandardCharsets.US_ASCII);
+        KeyRing ring = new KeyRing(modified);
+        for (String line : lines) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] parts = line.split("\\s+");
+            try {
+                int id = Integer.parseInt(parts[0]);
+                byte[] key = Base64.getDecoder().decode(parts[1]);
+                if (id < 0 || id > 255 || (key.length != 16 && key.length != 32)) {
+                    throw new IllegalArgumentException("bad id or key length");
+                }
+                ring.add(id, key);
+            } catch (RuntimeException e) {
+                throw new IOException("Invalid key line in " + keyFile + " : " + e.getMessage());
+            }
+        }
+        if (ring.currentId < 0) {
+            throw new IOException("No key in " + keyFile);
+        }
+        return ring;
+    }
+
+    private static SecureRandom newRandom() {
+        try {
+            // An instance of its own, seeded once, unlike the default one
+            // reading a source shared by the whole process
+            return SecureRandom.getInstance("DRBG");
+        } catch (NoSuchAlgorithmException e) {
+            return new SecureRandom();
+        }
+    }
+
+    /**
+     * The keys of one version of the key file, by id.
+     */
+    private static final class KeyRing {
+        private final FileTime modified;
+        private final SecretKeySpec[] keys = new SecretKeySpec[256];
+        private int currentId = -1;
+
+        KeyRing(FileTime modified) {
+            this.modified = modified;
+        }
+
+        void add(int id, byte[] key) {
+            keys[id] = new SecretKeySpec(key, "AES");
+            if (currentId < 0) {
+                currentId = id;
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The HashRing class assigns each session to one node of a cluster with
+ * consistent hashing. Every node is placed on a ring of 64-bit hashes at
+ * {@value #VIRTUAL_NODES} points, its virtual nodes, and a session belongs to
+ * the node of the first point at or after the hash of its ID. Spreading each
+ * node over many points evens out the share of sessions of each node, and
+ * adding or removing a node only moves the sessions of the points it gains or
+ * loses.
+ * <p>
+ * The points are kept in one sorted array, so finding the owner of a session
+ * is a binary search without any allocation. Every node must be given the same
+ * list of nodes, in any order, to agree on the owners.
+ */
+public class HashRing {
+
+    /** The number of points of each node on the ring. */
+    public static final int VIRTUAL_NODES = 128;
+
+    private final String[] nodes;
+    private final long[] points;
+    private final int[] owners;
+
+    /**
+     * Places the nodes on the ring.
+     *
+     * @param nodes The nodes, as {@code host:port}.
+     * @throws IllegalArgumentException If there is no node or a node is listed
+     *                                  twice.
+     */
+    public HashRing(List<String> nodes) {
+        if (nodes.isEmpty() || nodes.stream().distinct().count() != nodes.size()) {
+            throw new IllegalArgumentException("Invalid cluster nodes : " + nodes);
+        }
+        this.nodes = nodes.toArray(new String[0]);
+        long[] placed = new long[this.nodes.length * VIRTUAL_NODES];
+        Integer[] order = new Integer[placed.length];
+        for (int i = 0; i < placed.length; i++) {
+            placed[i] = hash(this.nodes[i / VIRTUAL_NODES] + "#" + i % VIRTUAL_NODES);
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(placed[a], placed[b]));
+        this.points = new long[placed.length];
+        this.owners = new int[placed.length];
+        for (int i = 0; i < order.length; i++) {
+            points[i] = placed[order[i]];
+            owners[i] = order[i] / VIRTUAL_NODES;
+        }
+    }
+
+    /** @return The number of nodes. */
+    public int size() {
+        return nodes.length;
+    }
+
+    /**
+     * @param index The number of a node, in the order given.
+     * @return The node, as {@code host:port}.
+     */
+    public String node(int index) {
+        return nodes[index];
+    }
+
+    /**
+     * @param node The node, as {@code host:port}.
+     * @return The number of the node, or -1 if it is not in the ring.
+     */
+    public int indexOf(String node) {
+        return Arrays.asList(nodes).indexOf(node);
+    }
+
+    /**
+     * Returns the node owning a session.
+     *
+     * @param idHigh The high bits of the session ID.
+     * @param idLow  The low bits of the session ID.
+     * @return The number of the node, in the order given.
+     */
+    public int owner(long idHigh, long idLow) {
+        long hash = mix(idHigh ^ mix(idLow));
+        int index = Arrays.binarySearch(points, hash);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return owners[index < owners.length ? index : 0];
+    }
+
+    private static long hash(String text) {
+        // FNV-1a, spread by the final mix
+        long hash = 0xCBF29CE484222325L;
+        for (byte b : text.getBytes(StandardCharsets.UTF_8)) {
+            hash = (hash ^ (b & 0xff)) * 0x100000001B3L;
+        }
+        return mix(hash);
+    }
+
+    private static long mix(long value) {
+        value = (value ^ (value >>> 30)) * 0xBF58476D1CE4E5B9L;
+        value = (value ^ (value >>> 27)) * 0x94D049BB133111EBL;
+        return value ^ (value >>> 31);
+    }
+}
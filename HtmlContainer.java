@@ -3,10 +3,18 @@
  * The HtmlContainer class represents an HTML container for the Wordle game.
  * It provides the default HTML template and contains JavaScript functions for interacting with the game.
  * It also provides a method to update the guess section of the HTML page.
+ * The page is rendered, encoded and compressed once and cached. It links the
+ * logo served by the /logo.png route with a versioned URL, so it is only
+ * rendered again when the logo file changes. The page with the answer to a
+ * guess can be streamed: the part before the answer, head included, is kept
+ * encoded and compressed apart from the part after it.
  */
-import java.nio.file.Files;
-import java.nio.file.Paths;
-import java.util.Base64;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.Deflater;
 
 public class HtmlContainer {
     private static final String DEFAULT_HTML = "<!DOCTYPE html>\n" +
@@ -393,15 +401,78 @@ public class HtmlContainer {
             "</body>\n" +
             "\n</html>";
 
+    /** The route serving the logo, see {@link StaticFile}. */
+    public static final String LOGO_ROUTE = "/logo.png";
+
+    // The answer to a valid guess is inserted before this input
+    private static final String GUESS_INPUT = "<input type=\"text\" name=\"guess\" id=\"guess\">";
+
+    private static volatile RenderedPage renderedPage;
+
     private String html;
 
     public HtmlContainer(String imagePath) {
-        // Initialize with default HTML content
-        html = DEFAULT_HTML;
+        // Start from the cached page, which already links the logo
+        html = getRenderedPage(imagePath).html;
+    }
+
+    /**
+     * Renders the page for the given logo and caches it. Called at startup so
+     * the first request does not pay for it.
+     *
+     * @param imagePath The path of the logo linked from the page.
+     */
+    public static void preload(String imagePath) {
+        getRenderedPage(imagePath);
+    }
+
+    /**
+     * Returns the page without any guess section, encoded as UTF-8 and then
+     * with the given content coding. The buffer is shared: callers must
+     * duplicate it before reading.
+     *
+     * @param imagePath The path of the logo linked from the page.
+     * @param encoding  A {@link Compression} coding.
+     * @return A read-only buffer of the encoded page.
+     */
+    public static ByteBuffer getPageBytes(String imagePath, int encoding) {
+        return getRenderedPage(imagePath).variants[encoding];
+    }
+
+    /**
+     * Returns the page telling that the guess is not a word of the dictionary,
+     * encoded like {@link #getPageBytes}. It is the same for every rejected
+     * guess, so it is rendered and compressed once.
+     *
+     * @param imagePath The path of the logo linked from the page.
+     * @param encoding  A {@link Compression} coding.
+     * @return A read-only buffer of the encoded page.
+     */
+    public static ByteBuffer getRejectedPageBytes(String imagePath, int encoding) {
+        return getRenderedPage(imagePath).rejectedVariants[encoding];
+    }
+
+    private static RenderedPage getRenderedPage(String imagePath) {
+        // StaticFile returns the same instance as long as the logo is unchanged
+        StaticFile logo = StaticFile.get(imagePath);
+        RenderedPage page = renderedPage;
+        if (page != null && page.logo == logo) {
+            return page;
+        }
+        synchronized (HtmlContainer.class) {
+            page = renderedPage;
+            if (page == null || page.logo != logo) {
+                page = new RenderedPage(logo, render(logo));
+                renderedPage = page;
+            }
+            return page;
+        }
+    }
 
-        // Replace the placeholder with the base64 image
-        String base64Image = convertImageToBase64(imagePath);
-        html = html.replace("<img src=\"\">", "<img src=\"data:image/jpg;base64," + base64Image + "\">");
+    private static String render(StaticFile logo) {
+        // Replace the placeholder with the versioned logo URL
+        String logoUrl = logo != null ? LOGO_ROUTE + "?v=" + logo.getVersion() : LOGO_ROUTE;
+        return DEFAULT_HTML.replace("<img src=\"\">", "<img src=\"" + logoUrl + "\" alt=\"Wordle\">");
     }
 
     public String getHtml() {
@@ -422,40 +493,134 @@ public class HtmlContainer {
             html = html.replace("<div class=\"row\">", "<div class=\"row\"><div id=\"answer\">\n" +
                     coloredGuess.toString() + "</div>\n");
         } else {
-            for (int i = 0; i < response.length(); i++) {
-                char letter = response.charAt(i);
-                switch (letter) {
-                    case 'G':
-                        coloredGuess.append("<span class=\"correct-letter\">").append(guess.charAt(i))
-                                .append("</span>");
-                        break;
-                    case 'Y':
-                        coloredGuess.append("<span class=\"existant-letter\">").append(guess.charAt(i))
-                                .append("</span>");
-                        break;
-                    case 'B':
-                        coloredGuess.append("<span class=\"non-existant-letter\">").append(guess.charAt(i))
-                                .append("</span>");
-                        break;
-                    default:
-                        coloredGuess.append(guess.charAt(i));
-                }
+            html = html.replace(GUESS_INPUT, getGuessSection(response, guess) + GUESS_INPUT + "\n");
+        }
+
+    }
+
+    /**
+     * Returns the answer to a valid guess, with each letter colored by its
+     * score, as inserted in the page right before the guess input.
+     *
+     * @param response The score of the guess, one of G, Y or B per letter.
+     * @param guess    The guess.
+     * @return The guess section.
+     */
+    public static String getGuessSection(String response, String guess) {
+        StringBuilder coloredGuess = new StringBuilder("<div id=\"answer\">\n");
+        for (int i = 0; i < response.length(); i++) {
+            char letter = response.charAt(i);
+            switch (letter) {
+                case 'G':
+                    coloredGuess.append("<span class=\"correct-letter\">").append(guess.charAt(i))
+                            .append("</span>");
+                    break;
+                case 'Y':
+                    coloredGuess.append("<span class=\"existant-letter\">").append(guess.charAt(i))
+                            .append("</span>");
+                    break;
+                case 'B':
+                    coloredGuess.append("<span class=\"non-existant-letter\">").append(guess.charAt(i))
+                            .append("</span>");
+                    break;
+                default:
+                    coloredGuess.append(guess.charAt(i));
             }
-            html = html.replace(
-                    "<input type=\"text\" name=\"guess\" id=\"guess\">", "<div id=\"answer\">\n" +
-                            coloredGuess.toString() + "</div>"
-                            + "\n<input type=\"text\" name=\"guess\" id=\"guess\">\n");
         }
+        return coloredGuess.append("</div>\n").toString();
+    }
 
+    /**
+     * Writes the page answering a valid guess, in the given coding, to a
+     * stream such as the one of {@link HttpResponse#sendChunked}. The parts
+     * before and after the guess section are cached compressed, so only the
+     * section of this guess is compressed, and the checksum of the trailer
+     * computed over the whole page.
+     *
+     * @param out       The stream to write the page to.
+     * @param imagePath The path of the logo linked from the page.
+     * @param response  The score of the guess, one of G, Y or B per letter.
+     * @param guess     The guess.
+     * @param encoding  The {@link Compression} coding accepted by the client.
+     * @throws IOException If an I/O error occurs while writing the page.
+     */
+    public static void writeGuessPage(OutputStream out, String imagePath, String response, String guess,
+            int encoding) throws IOException {
+        RenderedPage page = getRenderedPage(imagePath);
+        byte[] section = getGuessSection(response, guess).getBytes(StandardCharsets.UTF_8);
+        out.write(page.guessHeadVariants[encoding]);
+        if (encoding == Compression.IDENTITY) {
+            out.write(section);
+            out.write(page.guessTail);
+            return;
+        }
+        out.write(Compression.compressNext(section, Deflater.BEST_SPEED));
+        out.write(page.guessTailVariants[encoding]);
+        out.write(Compression.trailer(encoding, page.guessHead, section, page.guessTail));
+    }
+
+    /**
+     * Returns the page answering a valid guess, encoded as UTF-8: the cached
+     * bytes before and after the guess section around the section of this
+     * guess, which is all that is formatted.
+     *
+     * @param imagePath The path of the logo linked from the page.
+     * @param response  The score of the guess, one of G, Y or B per letter.
+     * @param guess     The guess.
+     * @return The bytes of the page.
+     */
+    public static byte[] getGuessPageBytes(String imagePath, String response, String guess) {
+        RenderedPage page = getRenderedPage(imagePath);
+        byte[] section = getGuessSection(response, guess).getBytes(StandardCharsets.UTF_8);
+        byte[] bytes = Arrays.copyOf(page.guessHead, page.guessHead.length + section.length + page.guessTail.length);
+        System.arraycopy(section, 0, bytes, page.guessHead.length, section.length);
+        System.arraycopy(page.guessTail, 0, bytes, page.guessHead.length + section.length, page.guessTail.length);
+        return bytes;
     }
 
-    private String convertImageToBase64(String imagePath) {
-        try {
-            byte[] imageBytes = Files.readAllBytes(Paths.get(imagePath));
-            return Base64.getEncoder().encodeToString(imageBytes);
-        } catch (Exception e) {
-            e.printStackTrace();
-            return ""; // Gestion d'erreur, vous pouvez traiter différemment
+    /**
+     * An immutable rendering of the page for one version of the logo.
+     */
+    private static final class RenderedPage {
+        private final StaticFile logo;
+        private final String html;
+        // Indexed by Compression coding
+        private final ByteBuffer[] variants;
+        // The page around the answer to a valid guess, then compressed in parts
+        private final byte[] guessHead;
+        private final byte[] guessTail;
+        private final byte[][] guessHeadVariants;
+        private final byte[][] guessTailVariants;
+        // The page answering a guess that is not a word, indexed the same way
+        private final ByteBuffer[] rejectedVariants;
+
+        RenderedPage(StaticFile logo, String html) {
+            this.logo = logo;
+            this.html = html;
+            int guessInput = html.indexOf(GUESS_INPUT);
+            this.guessHead = html.substring(0, guessInput).getBytes(StandardCharsets.UTF_8);
+            this.guessTail = (GUESS_INPUT + "\n" + html.substring(guessInput + GUESS_INPUT.length()))
+                    .getBytes(StandardCharsets.UTF_8);
+            this.guessHeadVariants = new byte[][] {
+                    guessHead,
+                    Compression.compressStart(guessHead, Compression.GZIP, Deflater.BEST_COMPRESSION),
+                    Compression.compressStart(guessHead, Compression.DEFLATE, Deflater.BEST_COMPRESSION) };
+            byte[] tail = Compression.compressEnd(guessTail, Deflater.BEST_COMPRESSION);
+            this.guessTailVariants = new byte[][] { guessTail, tail, tail };
+            this.variants = encode(html);
+            this.rejectedVariants = encode(html.substring(0, guessInput)
+                    + "<div id=\"answer\">\n<span>Not in the word list !</span></div>\n"
+                    + html.substring(guessInput));
+        }
+
+        private static ByteBuffer[] encode(String html) {
+            byte[] bytes = html.getBytes(StandardCharsets.UTF_8);
+            return new ByteBuffer[] {
+                    ByteBuffer.wrap(bytes).asReadOnlyBuffer(),
+                    ByteBuffer.wrap(Compression.compress(bytes, Compression.GZIP, Deflater.BEST_COMPRESSION))
+                            .asReadOnlyBuffer(),
+                    ByteBuffer.wrap(Compression.compress(bytes, Compression.DEFLATE, Deflater.BEST_COMPRESSION))
+                            .asReadOnlyBuffer() };
         }
     }
 
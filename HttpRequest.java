@@ -0,0 +1,573 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The HttpRequest class parses an HTTP request directly from the bytes of a
+ * reusable ByteBuffer. Parsing only records offsets: the method, path, query,
+ * SESSIONID cookie and body stay in the buffer and are compared or exposed as
+ * views, and a String is created only when the game logic asks for one.
+ * One instance is reused for every request of a connection.
+ */
+public class HttpRequest {
+
+    /** Returned by {@link #parse} while the request is not fully received. */
+    public static final int INCOMPLETE = -1;
+    /** Returned by {@link #parse} when the bytes are not a valid request. */
+    public static final int MALFORMED = -2;
+
+    /** Largest request, head and body together, the server accepts. */
+    public static final int MAX_REQUEST_SIZE = 64 * 1024;
+    /** Initial size of a connection read buffer. */
+    public static final int INITIAL_BUFFER_SIZE = 4096;
+
+    private static final byte[] SESSION_COOKIE = "SESSIONID=".getBytes(StandardCharsets.US_ASCII);
+
+    /** Header a cluster node adds to a request it forwards to another node. */
+    public static final String FORWARDED_HEADER = "X-Wordle-Forwarded";
+
+    private ByteBuffer buffer;
+    private int requestStart;
+    private int methodStart;
+    private int methodEnd;
+    private int pathStart;
+    private int pathEnd;
+    private int queryStart;
+    private int queryEnd;
+    private int cookieStart;
+    private int cookieEnd;
+    private int ifNoneMatchStart;
+    private int ifNoneMatchEnd;
+    private int ifModifiedSinceStart;
+    private int ifModifiedSinceEnd;
+    private int bodyStart;
+    private int contentLength;
+    private boolean http11;
+    private boolean connectionClose;
+    private boolean connectionKeepAlive;
+    private boolean acceptsGzip;
+    private boolean acceptsDeflate;
+    private int forwardedStart;
+    private int forwardedEnd;
+
+    /**
+     * Parses the request starting at {@code from}. Leading empty lines are
+     * skipped. The buffer is read with absolute gets only, so its position and
+     * limit are left untouched.
+     *
+     * @param buffer The buffer holding the received bytes.
+     * @param from   The offset of the first unparsed byte.
+     * @param limit  The offset after the last received byte.
+     * @return The offset right after the request body, or {@link #INCOMPLETE}
+     *         or {@link #MALFORMED}.
+     */
+    public int parse(ByteBuffer buffer, int from, int limit) {
+        this.buffer = buffer;
+        queryStart = queryEnd = -1;
+        cookieStart = cookieEnd = -1;
+        ifNoneMatchStart = ifNoneMatchEnd = -1;
+        ifModifiedSinceStart = ifModifiedSinceEnd = -1;
+        contentLength = 0;
+        connectionClose = connectionKeepAlive = false;
+        acceptsGzip = acceptsDeflate = false;
+        forwardedStart = forwardedEnd = -1;
+
+        int i = from;
+        while (i < limit && (buffer.get(i) == '\r' || buffer.get(i) == '\n')) {
+            i++;
+        }
+        requestStart = i;
+        // Request line: METHOD SP TARGET SP VERSION
+        int lineEnd = indexOfLineEnd(i, limit);
+        if (lineEnd < 0) {
+            return limit - from > MAX_REQUEST_SIZE ? MALFORMED : INCOMPLETE;
+        }
+        int contentEnd = trimLineEnd(i, lineEnd);
+        methodStart = i;
+        methodEnd = indexOf(' ', i, contentEnd);
+        if (methodEnd <= methodStart) {
+            return MALFORMED;
+        }
+        pathStart = methodEnd + 1;
+        int targetEnd = indexOf(' ', pathStart, contentEnd);
+        if (targetEnd <= pathStart) {
+            return MALFORMED;
+        }
+        pathEnd = indexOf('?', pathStart, targetEnd);
+        if (pathEnd < 0) {
+            pathEnd = targetEnd;
+        } else {
+            queryStart = pathEnd + 1;
+            queryEnd = targetEnd;
+        }
+        http11 = regionEquals(targetEnd + 1, contentEnd, "HTTP/1.1");
+        if (!http11 && !regionEquals(targetEnd + 1, contentEnd, "HTTP/1.0")) {
+            return MALFORMED;
+        }
+
+        // Headers, up to the empty line
+        i = lineEnd + 1;
+        while (true) {
+            lineEnd = indexOfLineEnd(i, limit);
+            if (lineEnd < 0) {
+                return limit - from > MAX_REQUEST_SIZE ? MALFORMED : INCOMPLETE;
+            }
+            contentEnd = trimLineEnd(i, lineEnd);
+            if (contentEnd == i) {
+                break;
+            }
+            int colon = indexOf(':', i, contentEnd);
+            if (colon > i) {
+                int valueStart = colon + 1;
+                int valueEnd = contentEnd;
+                while (valueStart < valueEnd && buffer.get(valueStart) == ' ') {
+                    valueStart++;
+                }
+                while (valueEnd > valueStart && buffer.get(valueEnd - 1) == ' ') {
+                    valueEnd--;
+                }
+                if (!parseHeader(i, colon, valueStart, valueEnd)) {
+                    return MALFORMED;
+                }
+            }
+            i = lineEnd + 1;
+        }
+        bodyStart = lineEnd + 1;
+        if (bodyStart - from + contentLength > MAX_REQUEST_SIZE) {
+            return MALFORMED;
+        }
+        int end = bodyStart + contentLength;
+        return end <= limit ? end : INCOMPLETE;
+    }
+
+    private boolean parseHeader(int nameStart, int nameEnd, int valueStart, int valueEnd) {
+        if (regionEqualsIgnoreCase(nameStart, nameEnd, "Content-Length")) {
+            if (valueStart == valueEnd) {
+                return false;
+            }
+            int length = 0;
+            for (int i = valueStart; i < valueEnd; i++) {
+                int digit = buffer.get(i) - '0';
+                if (digit < 0 || digit > 9 || length > MAX_REQUEST_SIZE) {
+                    return false;
+                }
+                length = length * 10 + digit;
+            }
+            contentLength = length;
+        } else if (regionEqualsIgnoreCase(nameStart, nameEnd, "Cookie")) {
+            findSessionCookie(valueStart, valueEnd);
+        } else if (regionEqualsIgnoreCase(nameStart, nameEnd, "Connection")) {
+            connectionClose = regionEqualsIgnoreCase(valueStart, valueEnd, "close");
+            connectionKeepAlive = regionEqualsIgnoreCase(valueStart, valueEnd, "keep-alive");
+        } else if (regionEqualsIgnoreCase(nameStart, nameEnd, "Accept-Encoding")) {
+            parseAcceptEncoding(valueStart, valueEnd);
+        } else if (regionEqualsIgnoreCase(nameStart, nameEnd, "If-None-Match")) {
+            ifNoneMatchStart = valueStart;
+            ifNoneMatchEnd = valueEnd;
+        } else if (regionEqualsIgnoreCase(nameStart, nameEnd, "If-Modified-Since")) {
+            ifModifiedSinceStart = valueStart;
+            ifModifiedSinceEnd = valueEnd;
+        } else if (regionEqualsIgnoreCase(nameStart, nameEnd, FORWARDED_HEADER) && forwardedStart < 0) {
+            // The line a node adds comes first, before any sent by the client
+            forwardedStart = valueStart;
+            forwardedEnd = valueEnd;
+        }
+        return true;
+    }
+
+    /**
+     * Reads the "," separated codings, skipping the ones with a zero q value.
+     */
+    private void parseAcceptEncoding(int start, int end) {
+        int i = start;
+        while (i < end) {
+            while (i < end && buffer.get(i) == ' ') {
+                i++;
+            }
+            int itemEnd = indexOf(',', i, end);
+            if (itemEnd < 0) {
+                itemEnd = end;
+            }
+            int nameEnd = indexOf(';', i, itemEnd);
+            boolean accepted = nameEnd < 0 || !isZeroQuality(nameEnd + 1, itemEnd);
+            if (nameEnd < 0) {
+                nameEnd = itemEnd;
+            }
+            while (nameEnd > i && buffer.get(nameEnd - 1) == ' ') {
+                nameEnd--;
+            }
+            if (accepted) {
+                boolean any = regionEquals(i, nameEnd, "*");
+                acceptsGzip |= any || regionEqualsIgnoreCase(i, nameEnd, "gzip");
+                acceptsDeflate |= any || regionEqualsIgnoreCase(i, nameEnd, "deflate");
+            }
+            i = itemEnd + 1;
+        }
+    }
+
+    /** Tells whether the parameters contain q=0, q=0.0 and so on. */
+    private boolean isZeroQuality(int start, int end) {
+        int q = start;
+        while (q < end && buffer.get(q) == ' ') {
+            q++;
+        }
+        if (end - q < 3 || (buffer.get(q) != 'q' && buffer.get(q) != 'Q') || buffer.get(q + 1) != '=') {
+            return false;
+        }
+        for (int i = q + 2; i < end; i++) {
+            byte b = buffer.get(i);
+            if (b != '0' && b != '.' && b != ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Looks for the SESSIONID pair among the "; " separated cookies.
+     */
+    private void findSessionCookie(int start, int end) {
+        int i = start;
+        while (i < end) {
+            while (i < end && buffer.get(i) == ' ') {
+                i++;
+            }
+            int pairEnd = indexOf(';', i, end);
+            if (pairEnd < 0) {
+                pairEnd = end;
+            }
+            if (pairEnd - i > SESSION_COOKIE.length && startsWith(i, SESSION_COOKIE)) {
+                cookieStart = i + SESSION_COOKIE.length;
+                cookieEnd = pairEnd;
+                return;
+            }
+            i = pairEnd + 1;
+        }
+    }
+
+    /**
+     * Tells whether the request method is the given one.
+     *
+     * @param method The method, e.g. "GET".
+     * @return true if it matches.
+     */
+    public boolean methodIs(String method) {
+        return regionEquals(methodStart, methodEnd, method);
+    }
+
+    /**
+     * Tells whether the request path, without the query, is the given one.
+     *
+     * @param path The path, e.g. "/play.html".
+     * @return true if it matches.
+     */
+    public boolean pathIs(String path) {
+        return regionEquals(pathStart, pathEnd, path);
+    }
+
+    /**
+     * Tells whether the query contains the given lowercase text, ignoring case.
+     *
+     * @param text The lowercase text to look for.
+     * @return true if the query contains it.
+     */
+    public boolean queryContainsIgnoreCase(String text) {
+        for (int i = queryStart; i >= 0 && i + text.length() <= queryEnd; i++) {
+            if (regionEqualsIgnoreCase(i, i + text.length(), text)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads a parameter holding a word, in the query or else in a form body,
+     * straight from the request bytes. The word is looked up in the
+     * {@link WordleDictionary} bitset without creating any String.
+     *
+     * @param name The lowercase name of the parameter, e.g. "guess".
+     * @return The packed word, or -1 if the parameter is missing or is not a
+     *         word of the dictionary, in either case.
+     */
+    public int wordParameter(String name) {
+        int end = queryEnd;
+        int start = parameterStart(name, queryStart, end);
+        if (start < 0) {
+            end = bodyStart + contentLength;
+            start = parameterStart(name, bodyStart, end);
+        }
+        if (start < 0) {
+            return -1;
+        }
+        int valueEnd = indexOf('&', start, end);
+        if ((valueEnd < 0 ? end : valueEnd) - start != 5 || !WordleDictionary.contains(buffer, start)) {
+            return -1;
+        }
+        return WordleDictionary.encode(buffer, start);
+    }
+
+    /**
+     * @return The offset of the value of the first "name=" parameter of an
+     *         "&amp;" separated region, or -1.
+     */
+    private int parameterStart(String name, int start, int end) {
+        int i = start;
+        while (i >= 0 && i + name.length() < end) {
+            if (buffer.get(i + name.length()) == '=' && regionEqualsIgnoreCase(i, i + name.length(), name)) {
+                return i + name.length() + 1;
+            }
+            int next = indexOf('&', i, end);
+            i = next < 0 ? -1 : next + 1;
+        }
+        return -1;
+    }
+
+    /**
+     * Tells whether the client wants to keep the connection open after this
+     * request. HTTP/1.1 connections are persistent unless the client sends
+     * "Connection: close", HTTP/1.0 ones only with "Connection: keep-alive".
+     *
+     * @return true if the connection should stay open.
+     */
+    public boolean isKeepAlive() {
+        return http11 ? !connectionClose : connectionKeepAlive;
+    }
+
+    /** @return true if the response can use the chunked transfer coding. */
+    public boolean acceptsChunked() {
+        // Every HTTP/1.1 client must understand it, no HTTP/1.0 client does
+        return http11;
+    }
+
+    /** @return true if the client accepts the gzip content coding. */
+    public boolean acceptsGzip() {
+        return acceptsGzip;
+    }
+
+    /** @return true if the client accepts the deflate content coding. */
+    public boolean acceptsDeflate() {
+        return acceptsDeflate;
+    }
+
+    /**
+     * Tells whether another cluster node forwarded the request, as its
+     * {@value #FORWARDED_HEADER} header proves.
+     *
+     * @param key The key shared by the nodes, or null if there is none.
+     * @return true if the header is valid under the key; false without a key.
+     */
+    public boolean isForwarded(ClusterKey key) {
+        return key != null && forwardedStart >= 0 && key.verify(
+                string(forwardedStart, forwardedEnd, StandardCharsets.ISO_8859_1), sessionId(),
+                System.currentTimeMillis());
+    }
+
+    /** @return true if the request has an If-None-Match header. */
+    public boolean hasIfNoneMatch() {
+        return ifNoneMatchStart >= 0;
+    }
+
+    /**
+     * Tells whether the If-None-Match header lists the given entity tag, or
+     * "*". Weak tags match too, as the header uses the weak comparison.
+     *
+     * @param etag The quoted entity tag.
+     * @return true if it matches.
+     */
+    public boolean ifNoneMatch(byte[] etag) {
+        int i = ifNoneMatchStart;
+        while (i >= 0 && i < ifNoneMatchEnd) {
+            while (i < ifNoneMatchEnd && buffer.get(i) == ' ') {
+                i++;
+            }
+            int itemEnd = indexOf(',', i, ifNoneMatchEnd);
+            if (itemEnd < 0) {
+                itemEnd = ifNoneMatchEnd;
+            }
+            int tagEnd = itemEnd;
+            while (tagEnd > i && buffer.get(tagEnd - 1) == ' ') {
+                tagEnd--;
+            }
+            int tagStart = regionEquals(i, Math.min(i + 2, tagEnd), "W/") ? i + 2 : i;
+            if (regionEquals(tagStart, tagEnd, "*")
+                    || (tagEnd - tagStart == etag.length && startsWith(tagStart, etag))) {
+                return true;
+            }
+            i = itemEnd + 1;
+        }
+        return false;
+    }
+
+    /**
+     * Tells whether the If-Modified-Since header is exactly the given date.
+     *
+     * @param date The HTTP date sent as Last-Modified.
+     * @return true if it matches.
+     */
+    public boolean ifModifiedSince(byte[] date) {
+        return ifModifiedSinceStart >= 0 && ifModifiedSinceEnd - ifModifiedSinceStart == date.length
+                && startsWith(ifModifiedSinceStart, date);
+    }
+
+    /**
+     * Tells whether the query is exactly the given bytes.
+     *
+     * @param query The query, without the '?'.
+     * @return true if it matches.
+     */
+    public boolean queryIs(byte[] query) {
+        return queryStart >= 0 && queryEnd - queryStart == query.length && startsWith(queryStart, query);
+    }
+
+    /** @return A read-only view of the path, without the query. */
+    public ByteBuffer path() {
+        return view(pathStart, pathEnd);
+    }
+
+    /** @return A read-only view of the query, empty if there is none. */
+    public ByteBuffer query() {
+        return queryStart < 0 ? view(pathEnd, pathEnd) : view(queryStart, queryEnd);
+    }
+
+    /** @return A read-only view of the SESSIONID cookie value, or null. */
+    public ByteBuffer sessionCookie() {
+        return cookieStart < 0 ? null : view(cookieStart, cookieEnd);
+    }
+
+    /** @return A read-only view of the body. */
+    public ByteBuffer body() {
+        return view(bodyStart, bodyStart + contentLength);
+    }
+
+    /**
+     * @return A read-only view of the whole request, from the request line to
+     *         the end of the body.
+     */
+    public ByteBuffer raw() {
+        return view(requestStart, bodyStart + contentLength);
+    }
+
+    /** @return The path, without the query, as a String. */
+    public String pathString() {
+        return string(pathStart, pathEnd, StandardCharsets.ISO_8859_1);
+    }
+
+    /** @return The query as a String, empty if there is none. */
+    public String queryString() {
+        return queryStart < 0 ? "" : string(queryStart, queryEnd, StandardCharsets.ISO_8859_1);
+    }
+
+    /** @return The SESSIONID cookie value, or null if the client sent none. */
+    public String sessionId() {
+        return cookieStart < 0 ? null : string(cookieStart, cookieEnd, StandardCharsets.ISO_8859_1);
+    }
+
+    /** @return The body decoded as UTF-8. */
+    public String bodyString() {
+        return string(bodyStart, bodyStart + contentLength, StandardCharsets.UTF_8);
+    }
+
+    /** @return The value of the Content-Length header, 0 if absent. */
+    public int contentLength() {
+        return contentLength;
+    }
+
+    /**
+     * Makes room for more bytes in a connection read buffer, doubling it when it
+     * is full.
+     *
+     * @param buffer The buffer in write mode.
+     * @return The buffer itself or a bigger copy, or null if it already has the
+     *         maximum request size.
+     */
+    public static ByteBuffer ensureSpace(ByteBuffer buffer) {
+        if (buffer.hasRemaining()) {
+            return buffer;
+        }
+        if (buffer.capacity() >= MAX_REQUEST_SIZE) {
+            return null;
+        }
+        ByteBuffer bigger = ByteBuffer.allocate(Math.min(buffer.capacity() * 2, MAX_REQUEST_SIZE));
+        buffer.flip();
+        bigger.put(buffer);
+        return bigger;
+    }
+
+    /**
+     * Drops the bytes of the request that has just been answered, keeping the
+     * bytes of any pipelined request that followed it.
+     *
+     * @param buffer The buffer in write mode.
+     * @param end    The offset returned by {@link #parse}.
+     */
+    public static void consume(ByteBuffer buffer, int end) {
+        buffer.flip();
+        buffer.position(end);
+        buffer.compact();
+    }
+
+    private ByteBuffer view(int start, int end) {
+        ByteBuffer view = buffer.asReadOnlyBuffer();
+        view.limit(end).position(start);
+        return view.slice();
+    }
+
+    private String string(int start, int end, java.nio.charset.Charset charset) {
+        if (buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + start, end - start, charset);
+        }
+        return charset.decode(view(start, end)).toString();
+    }
+
+    private int indexOfLineEnd(int from, int limit) {
+        return indexOf('\n', from, limit);
+    }
+
+    /** Returns the end of the line content, without the CR before the LF. */
+    private int trimLineEnd(int start, int lineEnd) {
+        return lineEnd > start && buffer.get(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd;
+    }
+
+    private int indexOf(char c, int from, int limit) {
+        for (int i = from; i < limit; i++) {
+            if (buffer.get(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean startsWith(int start, byte[] prefix) {
+        for (int i = 0; i < prefix.length; i++) {
+            if (buffer.get(start + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean regionEquals(int start, int end, String text) {
+        if (end - start != text.length()) {
+            return false;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            if (buffer.get(start + i) != text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean regionEqualsIgnoreCase(int start, int end, String text) {
+        if (end - start != text.length()) {
+            return false;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            int b = buffer.get(start + i);
+            int c = text.charAt(i);
+            if (b != c && !(Character.isLetter(c) && (b | 0x20) == (c | 0x20))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,252 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+/**
+ * The HttpResponse class assembles an HTTP response from ByteBuffers and sends
+ * it with a single gathering write. Status lines and common header lines are
+ * encoded once and shared, static bodies are passed as ByteBuffers, and only
+ * the dynamic parts (Content-Length, cookies, generated bodies) are encoded per
+ * response. A body generated while it is sent goes through a chunked stream
+ * instead.
+ */
+public class HttpResponse {
+
+    /** Pre-encoded "Content-Type: text/html" header line. */
+    public static final byte[] TEXT_HTML = headerLine("Content-Type", "text/html");
+    /** Pre-encoded "Content-Type: text/html;charset=UTF-8" header line. */
+    public static final byte[] TEXT_HTML_UTF8 = headerLine("Content-Type", "text/html;charset=UTF-8");
+
+    /** Pre-encoded "Content-Type: text/plain;charset=UTF-8" header line. */
+    public static final byte[] TEXT_PLAIN = headerLine("Content-Type", "text/plain;charset=UTF-8");
+
+    private static final byte[] CRLF = ascii("\r\n");
+    private static final byte[] CONTENT_LENGTH = ascii("Content-Length: ");
+    private static final byte[] TRANSFER_ENCODING_CHUNKED = headerLine("Transfer-Encoding", "chunked");
+    private static final byte[] CONNECTION_CLOSE = headerLine("Connection", "close");
+    private static final byte[] CONNECTION_KEEP_ALIVE = ascii("Connection: keep-alive\r\nKeep-Alive: timeout="
+            + WordleServer.KEEP_ALIVE_TIMEOUT / 1000 + "\r\n");
+    private static final byte[][] STATUS_LINES = new byte[600][];
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final int statusCode;
+    private ByteBuffer[] parts = new ByteBuffer[10];
+    private int count;
+    private ByteBuffer body = EMPTY;
+
+    static {
+        for (int statusCode = 100; statusCode < STATUS_LINES.length; statusCode++) {
+            String message = WordleServer.getStatusCodeMessage(statusCode);
+            if (!message.equals("Unknown")) {
+                STATUS_LINES[statusCode] = ascii("HTTP/1.1 " + statusCode + " " + message + "\r\n");
+            }
+        }
+    }
+
+    /**
+     * Starts a response with the given status.
+     *
+     * @param statusCode The status code of the response.
+     */
+    public HttpResponse(int statusCode) {
+        this.statusCode = statusCode;
+        byte[] statusLine = statusCode >= 0 && statusCode < STATUS_LINES.length ? STATUS_LINES[statusCode] : null;
+        add(ByteBuffer.wrap(statusLine != null ? statusLine
+                : ascii("HTTP/1.1 " + statusCode + " " + WordleServer.getStatusCodeMessage(statusCode) + "\r\n")));
+    }
+
+    /**
+     * Adds a pre-encoded header line, such as {@link #TEXT_HTML}.
+     *
+     * @param line The header line, ending with CRLF.
+     * @return This response.
+     */
+    public HttpResponse header(byte[] line) {
+        return add(ByteBuffer.wrap(line));
+    }
+
+    /**
+     * Adds a header line encoded for this response only.
+     *
+     * @param name  The header name.
+     * @param value The header value.
+     * @return This response.
+     */
+    public HttpResponse header(String name, String value) {
+        return header(headerLine(name, value));
+    }
+
+    /**
+     * Sets a static body. The buffer is duplicated, so a shared buffer can be
+     * sent by many responses at once.
+     *
+     * @param body The body bytes between position and limit.
+     * @return This response.
+     */
+    public HttpResponse body(ByteBuffer body) {
+        this.body = body.duplicate();
+        return this;
+    }
+
+    /**
+     * Sets a generated body, encoded as UTF-8.
+     *
+     * @param body The body.
+     * @return This response.
+     */
+    public HttpResponse body(String body) {
+        this.body = ByteBuffer.wrap(body.getBytes(StandardCharsets.UTF_8));
+        return this;
+    }
+
+    /**
+     * Sets a static body already compressed with the given coding, and adds the
+     * matching Content-Encoding header.
+     *
+     * @param body     The body bytes between position and limit.
+     * @param encoding The {@link Compression} coding of the bytes.
+     * @return This response.
+     */
+    public HttpResponse body(ByteBuffer body, int encoding) {
+        if (encoding != Compression.IDENTITY) {
+            header(Compression.contentEncodingHeader(encoding));
+        }
+        return body(body);
+    }
+
+    /**
+     * Sets a generated body, encoded as UTF-8 and compressed with the given
+     * coding when it reaches {@link Compression#THRESHOLD}.
+     *
+     * @param body     The body.
+     * @param encoding The {@link Compression} coding accepted by the client.
+     * @return This response.
+     */
+    public HttpResponse body(String body, int encoding) {
+        return body(body.getBytes(StandardCharsets.UTF_8), encoding);
+    }
+
+    /**
+     * Sets a generated body, compressed with the given coding when it reaches
+     * {@link Compression#THRESHOLD}.
+     *
+     * @param bytes    The body bytes, not copied.
+     * @param encoding The {@link Compression} coding accepted by the client.
+     * @return This response.
+     */
+    public HttpResponse body(byte[] bytes, int encoding) {
+        if (encoding != Compression.IDENTITY && bytes.length >= Compression.THRESHOLD) {
+            header(Compression.contentEncodingHeader(encoding));
+            bytes = Compression.compress(bytes, encoding, Deflater.BEST_SPEED);
+        }
+        this.body = ByteBuffer.wrap(bytes);
+        return this;
+    }
+
+    /**
+     * Returns the Connection header lines of the responses of this server, for
+     * a head written elsewhere. The bytes are shared and must not be changed.
+     *
+     * @param keepAlive Indicates if the connection stays open after the
+     *                  response.
+     * @return The header lines, each ending with CRLF.
+     */
+    static byte[] connectionHeader(boolean keepAlive) {
+        return keepAlive ? CONNECTION_KEEP_ALIVE : CONNECTION_CLOSE;
+    }
+
+    /**
+     * Completes the head with the Content-Length and Connection headers and
+     * writes head and body to the channel in one gathering write. A 304 has no
+     * body and no Content-Length.
+     *
+     * @param channel   The channel to send the response to.
+     * @param keepAlive Indicates if the connection stays open after the
+     *                  response.
+     * @throws IOException If an I/O error occurs while sending the response.
+     */
+    public void send(GatheringByteChannel channel, boolean keepAlive) throws IOException {
+        if (statusCode != 304) {
+            add(ByteBuffer.wrap(CONTENT_LENGTH));
+            add(ByteBuffer.wrap(digits(body.remaining())));
+        }
+        add(ByteBuffer.wrap(keepAlive ? CONNECTION_KEEP_ALIVE : CONNECTION_CLOSE));
+        add(ByteBuffer.wrap(CRLF));
+        add(body);
+        write(channel);
+    }
+
+    /**
+     * Completes the head with the Transfer-Encoding and Connection headers,
+     * writes it, and returns a stream for a body of unknown length. What is
+     * written to the stream must already be in the given coding, such as the
+     * parts of a body compressed by {@link Compression#compressStart} and the
+     * methods following it, and every flush of the stream sends what was
+     * written so far. Closing the stream ends the body. Only HTTP/1.1 clients
+     * accept a chunked response.
+     *
+     * @param channel   The channel to send the response to.
+     * @param keepAlive Indicates if the connection stays open after the
+     *                  response.
+     * @param encoding  The {@link Compression} coding of the body.
+     * @return The stream to write the body to.
+     * @throws IOException If an I/O error occurs while sending the head.
+     */
+    public OutputStream sendChunked(GatheringByteChannel channel, boolean keepAlive, int encoding)
+            throws IOException {
+        if (encoding != Compression.IDENTITY) {
+            header(Compression.contentEncodingHeader(encoding));
+        }
+        add(ByteBuffer.wrap(TRANSFER_ENCODING_CHUNKED));
+        add(ByteBuffer.wrap(keepAlive ? CONNECTION_KEEP_ALIVE : CONNECTION_CLOSE));
+        add(ByteBuffer.wrap(CRLF));
+        write(channel);
+        return new ChunkedOutputStream(channel);
+    }
+
+    private void write(GatheringByteChannel channel) throws IOException {
+        int first = 0;
+        while (first < count) {
+            channel.write(parts, first, count - first);
+            while (first < count && !parts[first].hasRemaining()) {
+                first++;
+            }
+        }
+    }
+
+    private HttpResponse add(ByteBuffer part) {
+        if (count == parts.length) {
+            parts = Arrays.copyOf(parts, count * 2);
+        }
+        parts[count++] = part;
+        return this;
+    }
+
+    /** Encodes the Content-Length value followed by CRLF. */
+    private static byte[] digits(int value) {
+        int length = 1;
+        for (int v = value; v >= 10; v /= 10) {
+            length++;
+        }
+        byte[] bytes = new byte[length + 2];
+        for (int i = length - 1; i >= 0; i--) {
+            bytes[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        bytes[length] = '\r';
+        bytes[length + 1] = '\n';
+        return bytes;
+    }
+
+    private static byte[] headerLine(String name, String value) {
+        return ascii(name + ": " + value + "\r\n");
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.ISO_8859_1);
+    }
+}
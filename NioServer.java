@@ -0,0 +1,380 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * The NioServer class is a non-blocking front end for the Wordle server.
+ * The main thread accepts connections on a ServerSocketChannel and spreads them
+ * over a few selector loops. Each loop reads and parses requests for its
+ * connections, and only the game logic is handed to the worker pool, so an idle
+ * or slow client costs a buffer instead of a thread. Connections are persistent
+ * and pipelined requests are answered one after the other, in order.
+ */
+public class NioServer {
+
+    private static final long IDLE_TIMEOUT_MILLIS = 300000;
+    private static final long KEEP_ALIVE_TIMEOUT_MILLIS = WordleServer.KEEP_ALIVE_TIMEOUT;
+
+    private final int port;
+    private final ExecutorService workers;
+    private final SelectorLoop[] loops;
+
+    /**
+     * Creates a non-blocking server.
+     *
+     * @param port    The port to listen on.
+     * @param loops   The number of selector loop threads.
+     * @param workers The pool running the game logic.
+     * @throws IOException If a selector cannot be opened.
+     */
+    public NioServer(int port, int loops, ExecutorService workers) throws IOException {
+        this.port = port;
+        this.workers = workers;
+        this.loops = new SelectorLoop[Math.max(1, loops)];
+        for (int i = 0; i < this.loops.length; i++) {
+            this.loops[i] = new SelectorLoop(i);
+        }
+    }
+
+    /**
+     * Starts the selector loops and accepts connections on the calling thread
+     * until the server socket is closed.
+     *
+     * @throws IOException If the server socket cannot be bound.
+     */
+    public void run() throws IOException {
+        for (SelectorLoop loop : loops) {
+            loop.start();
+        }
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(port), 1024);
+            System.out.println("Server started on port " + port + " (nio, " + loops.length + " loops)");
+            int next = 0;
+            while (true) {
+                SocketChannel channel = serverChannel.accept();
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                loops[next].register(channel);
+                next = (next + 1) % loops.length;
+            }
+        }
+    }
+
+    /**
+     * A selector loop owning a set of connections. Other threads never touch the
+     * selector directly: they queue a task and wake the loop up.
+     */
+    private final class SelectorLoop extends Thread {
+        private final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+        SelectorLoop(int index) throws IOException {
+            super("wordle-nio-" + index);
+            this.selector = Selector.open();
+            setDaemon(true);
+        }
+
+        void register(SocketChannel channel) {
+            execute(() -> {
+                try {
+                    Connection connection = new Connection(this, channel);
+                    connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                } catch (IOException e) {
+                    closeQuietly(channel);
+                }
+            });
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            long lastSweep = System.currentTimeMillis();
+            while (true) {
+                try {
+                    selector.select(1000);
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        Connection connection = (Connection) key.attachment();
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isReadable()) {
+                            connection.onReadable();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.onWritable();
+                        }
+                    }
+                    long now = System.currentTimeMillis();
+                    if (now - lastSweep >= 1000) {
+                        lastSweep = now;
+                        closeIdle(now);
+                    }
+                } catch (IOException e) {
+                    System.out.println("Problem : " + e.getMessage());
+                }
+            }
+        }
+
+        private void closeIdle(long now) {
+            for (SelectionKey key : selector.keys()) {
+                Connection connection = (Connection) key.attachment();
+                if (connection != null && !connection.busy && connection.out.isEmpty()
+                        && now - connection.lastActivity > connection.idleTimeout()) {
+                    connection.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * The state of one client connection: the bytes read so far and the
+     * response bytes still waiting to be written.
+     */
+    private final class Connection {
+        private final SelectorLoop loop;
+        private final SocketChannel channel;
+        private SelectionKey key;
+        private ByteBuffer in = ByteBuffer.allocate(HttpRequest.INITIAL_BUFFER_SIZE);
+        private final HttpRequest request = new HttpRequest();
+        private final Queue<ByteBuffer> out = new ArrayDeque<>();
+        private ByteBuffer[] gather = new ByteBuffer[16];
+        private boolean closeAfterWrite;
+        private boolean busy;
+        private boolean served;
+        private long lastActivity = System.currentTimeMillis();
+
+        Connection(SelectorLoop loop, SocketChannel channel) {
+            this.loop = loop;
+            this.channel = channel;
+        }
+
+        void onReadable() {
+            int read;
+            try {
+                read = channel.read(in);
+            } catch (IOException e) {
+                close();
+                return;
+            }
+            if (read == -1) {
+                close();
+                return;
+            }
+            lastActivity = System.currentTimeMillis();
+            tryDispatch();
+            in = HttpRequest.ensureSpace(in);
+            if (in == null) {
+                close();
+            }
+        }
+
+        private long idleTimeout() {
+            return served ? KEEP_ALIVE_TIMEOUT_MILLIS : IDLE_TIMEOUT_MILLIS;
+        }
+
+        /**
+         * Parses the first buffered request once its head and body are complete,
+         * then runs the game logic on a worker. Only one request per connection
+         * is in flight, which keeps pipelined responses in order. The request is
+         * parsed in place, so the buffer is left alone until it is answered.
+         */
+        private void tryDispatch() {
+            if (busy || closeAfterWrite) {
+                return;
+            }
+            int end = request.parse(in, 0, in.position());
+            if (end == HttpRequest.INCOMPLETE) {
+                return;
+            }
+            if (end == HttpRequest.MALFORMED) {
+                try {
+                    WordleServer.sendResponse(new ResponseBuffers(this), "Invalid request : malformed request", 400,
+                            false);
+                } catch (IOException e) {
+                    // Forwarding buffers cannot fail
+                }
+                busy = true;
+                loop.execute(() -> complete(true, in.position()));
+                return;
+            }
+            busy = true;
+            updateInterest();
+            workers.submit(() -> {
+                boolean keepAlive = false;
+                try {
+                    keepAlive = WordleServer.processRequest(request, new ResponseBuffers(this));
+                } catch (Exception e) {
+                    System.out.println("Problem : " + e.getMessage());
+                }
+                boolean close = !keepAlive;
+                loop.execute(() -> complete(close, end));
+            });
+        }
+
+        /**
+         * Queues part of a response. Runs on the loop, in the order the worker
+         * wrote the parts, so a streamed response starts going out before it is
+         * complete.
+         */
+        private void enqueue(List<ByteBuffer> buffers) {
+            if (!key.isValid()) {
+                return;
+            }
+            out.addAll(buffers);
+            onWritable();
+        }
+
+        /**
+         * Ends the request in flight once all of its response is queued, and
+         * dispatches the next pipelined one.
+         */
+        private void complete(boolean close, int requestEnd) {
+            busy = false;
+            served = true;
+            if (!key.isValid()) {
+                return;
+            }
+            HttpRequest.consume(in, requestEnd);
+            closeAfterWrite = close;
+            tryDispatch();
+            if (key.isValid()) {
+                onWritable();
+            }
+        }
+
+        /**
+         * Reads only while no request is in flight, so a pipelining client cannot
+         * make the server buffer requests faster than it answers them.
+         */
+        private void updateInterest() {
+            if (!key.isValid()) {
+                return;
+            }
+            int ops = out.isEmpty() ? 0 : SelectionKey.OP_WRITE;
+            if (!busy && !closeAfterWrite) {
+                ops |= SelectionKey.OP_READ;
+            }
+            key.interestOps(ops);
+        }
+
+        /**
+         * Writes every pending buffer, the static parts of the responses
+         * included, with one gathering write.
+         */
+        void onWritable() {
+            try {
+                if (!out.isEmpty()) {
+                    gather = out.toArray(gather);
+                    channel.write(gather, 0, out.size());
+                    while (!out.isEmpty() && !out.peek().hasRemaining()) {
+                        out.poll();
+                    }
+                    if (!out.isEmpty()) {
+                        updateInterest();
+                        return;
+                    }
+                }
+            } catch (IOException e) {
+                close();
+                return;
+            }
+            lastActivity = System.currentTimeMillis();
+            if (closeAfterWrite) {
+                close();
+            } else {
+                updateInterest();
+            }
+        }
+
+        void close() {
+            if (key != null) {
+                key.cancel();
+            }
+            closeQuietly(channel);
+        }
+    }
+
+    /**
+     * A channel that hands the buffers written to it over to the selector loop
+     * of a connection, so a worker can build a response with
+     * {@link HttpResponse} without touching the socket. Each write is queued on
+     * the loop at once, which writes the buffers as soon as the socket accepts
+     * them. The buffers are not copied, so their content must not change after
+     * they are written.
+     */
+    private static final class ResponseBuffers implements GatheringByteChannel {
+        private final Connection connection;
+
+        ResponseBuffers(Connection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) {
+            List<ByteBuffer> buffers = new ArrayList<>(length);
+            long written = 0;
+            for (int i = offset; i < offset + length; i++) {
+                int remaining = srcs[i].remaining();
+                if (remaining > 0) {
+                    buffers.add(srcs[i].duplicate());
+                    srcs[i].position(srcs[i].limit());
+                    written += remaining;
+                }
+            }
+            if (!buffers.isEmpty()) {
+                connection.loop.execute(() -> connection.enqueue(buffers));
+            }
+            return written;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs) {
+            return write(srcs, 0, srcs.length);
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            return (int) write(new ByteBuffer[] { src }, 0, 1);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Nothing left to do with a broken connection
+        }
+    }
+}
@@ -0,0 +1,417 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The NodeClient class forwards requests to another node of the cluster over
+ * persistent connections. Connections are opened on demand, one per request in
+ * flight, and kept in a pool once the response is read, so a busy pair of
+ * nodes keeps reusing the same few connections.
+ * <p>
+ * The request bytes are forwarded as received, with a
+ * {@link HttpRequest#FORWARDED_HEADER} line signed by the {@link ClusterKey}
+ * added so the other node answers it itself, and the response is copied back to the client as it arrives. The
+ * response is only parsed enough to find where it ends: its Content-Length, its
+ * chunks, or the end of the connection. Its Connection header is the only one
+ * replaced: whether the client connection stays open is decided by this node,
+ * as for its own responses, whatever the other node keeps of its connection.
+ * <p>
+ * A request is only sent again, on a new connection, when it could not be
+ * sent at all. Once sent, the node may have played the guess even if no answer
+ * came back, so playing it a second time could cost the player an attempt:
+ * the client gets a 502 instead. A pooled connection the node has closed
+ * meanwhile is noticed and dropped before the request is sent on it.
+ */
+public class NodeClient {
+
+    private static final int READ_TIMEOUT = 10000;
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final int MAX_HEAD_SIZE = 64 * 1024;
+
+    private final String node;
+    private final InetSocketAddress address;
+    private final ClusterKey key;
+    private final ConcurrentLinkedDeque<Link> idle = new ConcurrentLinkedDeque<>();
+    private final LongAdder forwarded = new LongAdder();
+    private final LongAdder cutShort = new LongAdder();
+
+    /**
+     * Creates a client for a node, without connecting yet.
+     *
+     * @param node The node, as {@code host:port}.
+     * @param key  The key signing the forwarded requests, or null to send
+     *             them unsigned.
+     * @throws IllegalArgumentException If the node is not a host and a port, or
+     *                                  its host is unknown.
+     */
+    public NodeClient(String node, ClusterKey key) {
+        int colon = node.lastIndexOf(':');
+        if (colon <= 0) {
+            throw new IllegalArgumentException("Invalid cluster node : " + node);
+        }
+        this.node = node;
+        this.key = key;
+        this.address = new InetSocketAddress(node.substring(0, colon), Integer.parseInt(node.substring(colon + 1)));
+        if (address.isUnresolved()) {
+            throw new IllegalArgumentException("Unknown cluster node : " + node);
+        }
+    }
+
+    /** @return The number of requests forwarded to the node. */
+    public long getForwardedCount() {
+        return forwarded.sum();
+    }
+
+    /** @return The number of responses of the node that failed halfway. */
+    public long getCutShortCount() {
+        return cutShort.sum();
+    }
+
+    /**
+     * Forwards a request and copies the response to the client.
+     *
+     * @param request   The request.
+     * @param client    The channel to send the response to.
+     * @param keepAlive Indicates if this node would keep the client connection
+     *                  open after one of its own responses.
+     * @return true if the client connection stays open, as the relayed
+     *         Connection header says; false as well if the response failed
+     *         halfway.
+     * @throws IOException If the node cannot be reached or fails before
+     *                     answering, in which case nothing was sent to the
+     *                     client.
+     */
+    public boolean forward(HttpRequest request, GatheringByteChannel client, boolean keepAlive)
+            throws IOException {
+        forwarded.increment();
+        byte[] forwardedLine = key == null ? new byte[0]
+                : key.headerLine(request.sessionId(), System.currentTimeMillis());
+        while (true) {
+            Link link = idle.pollFirst();
+            boolean reused = link != null;
+            if (link == null || System.currentTimeMillis() - link.idleSince > WordleServer.KEEP_ALIVE_TIMEOUT / 2
+                    || !link.isOpen()) {
+                if (link != null) {
+                    link.close();
+                }
+                link = new Link(address);
+                reused = false;
+            }
+            try {
+                link.send(request.raw(), forwardedLine);
+            } catch (IOException e) {
+                link.close();
+                if (reused) {
+                    // The node closed the idle connection, the request did not
+                    // reach it whole, try again on a new one
+                    continue;
+                }
+                throw e;
+            }
+            Relay relay = new Relay(client, keepAlive);
+            try {
+                relay.copy(link.in);
+            } catch (IOException e) {
+                link.close();
+                if (relay.sent) {
+                    // Part of the response is out, closing is all the client can be told
+                    cutShort.increment();
+                    return false;
+                }
+                throw e;
+            }
+            if (relay.close) {
+                link.close();
+            } else {
+                link.idleSince = System.currentTimeMillis();
+                idle.offerFirst(link);
+            }
+            return relay.keepClient;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return node;
+    }
+
+    /**
+     * One persistent connection to the node.
+     */
+    private static final class Link {
+        private final SocketChannel channel;
+        private final InputStream in;
+        private final ByteBuffer probe = ByteBuffer.allocate(1);
+        private long idleSince;
+
+        Link(InetSocketAddress address) throws IOException {
+            channel = SocketChannel.open(address);
+            channel.socket().setTcpNoDelay(true);
+            // The stream honours the read timeout, unlike a blocking channel read
+            channel.socket().setSoTimeout(READ_TIMEOUT);
+            in = channel.socket().getInputStream();
+        }
+
+        /** Sends the request with the forwarded header after its request line. */
+        void send(ByteBuffer raw, byte[] forwardedLine) throws IOException {
+            int lineEnd = 0;
+            while (raw.get(lineEnd) != '\n') {
+                lineEnd++;
+            }
+            ByteBuffer line = raw.duplicate().limit(lineEnd + 1);
+            ByteBuffer rest = raw.duplicate().position(lineEnd + 1);
+            ByteBuffer[] parts = { line, ByteBuffer.wrap(forwardedLine), rest };
+            while (rest.hasRemaining()) {
+                channel.write(parts);
+            }
+        }
+
+        /**
+         * Tells whether the node still keeps the connection open, with a read
+         * that does not wait: nothing is expected between two responses.
+         */
+        boolean isOpen() {
+            try {
+                channel.configureBlocking(false);
+                try {
+                    return channel.read(probe.clear()) == 0;
+                } finally {
+                    channel.configureBlocking(true);
+                }
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Nothing left to do with a broken connection
+            }
+        }
+    }
+
+    /**
+     * Copies one response, tracking its framing to stop right after it.
+     */
+    private static final class Relay {
+        private final GatheringByteChannel client;
+        // Whether this node keeps the client connection, and does for this response
+        private final boolean keepAlive;
+        private boolean keepClient;
+        private boolean sent;
+        private boolean close;
+        // Body framing once the head is read: bytes left, -1 for chunks, or
+        // Long.MAX_VALUE up to the end of the connection
+        private long remaining;
+        private final ChunkScanner chunks = new ChunkScanner();
+
+        Relay(GatheringByteChannel client, boolean keepAlive) {
+            this.client = client;
+            this.keepAlive = keepAlive;
+        }
+
+        void copy(InputStream in) throws IOException {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int filled = 0;
+            int headEnd;
+            while ((headEnd = headEnd(buffer, filled)) < 0) {
+                if (filled == buffer.length) {
+                    if (buffer.length >= MAX_HEAD_SIZE) {
+                        throw new IOException("Response head too large");
+                    }
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+                filled += read(in, buffer, filled);
+            }
+            String text = new String(buffer, 0, headEnd, StandardCharsets.ISO_8859_1);
+            parseHead(text);
+            // A body running to the end of the connection ends the client one too
+            keepClient = keepAlive && remaining != Long.MAX_VALUE;
+            ByteBuffer head = ByteBuffer.wrap(rewriteHead(text, keepClient));
+            int from = headEnd;
+            int end = bodyEnd(buffer, from, filled);
+            while (end < 0) {
+                // The client channel may keep the bytes, the next read goes to a new array
+                client.write(new ByteBuffer[] { head, ByteBuffer.wrap(buffer, from, filled - from) });
+                sent = true;
+                buffer = new byte[BUFFER_SIZE];
+                from = 0;
+                filled = read(in, buffer, 0);
+                if (filled < 0) {
+                    return;
+                }
+                end = bodyEnd(buffer, 0, filled);
+            }
+            client.write(new ByteBuffer[] { head, ByteBuffer.wrap(buffer, from, end - from) });
+        }
+
+        /** @return The head with the Connection header of this node instead of the other one. */
+        private static byte[] rewriteHead(String head, boolean keepAlive) {
+            StringBuilder kept = new StringBuilder(head.length());
+            for (String line : head.split("\r\n")) {
+                int colon = line.indexOf(':');
+                String name = colon < 0 ? "" : line.substring(0, colon).trim();
+                if (!line.isEmpty() && !name.equalsIgnoreCase("Connection") && !name.equalsIgnoreCase("Keep-Alive")) {
+                    kept.append(line).append("\r\n");
+                }
+            }
+            byte[] connection = HttpResponse.connectionHeader(keepAlive);
+            byte[] rewritten = Arrays.copyOf(kept.toString().getBytes(StandardCharsets.ISO_8859_1),
+                    kept.length() + connection.length + 2);
+            System.arraycopy(connection, 0, rewritten, kept.length(), connection.length);
+            rewritten[rewritten.length - 2] = '\r';
+            rewritten[rewritten.length - 1] = '\n';
+            return rewritten;
+        }
+
+        private int read(InputStream in, byte[] buffer, int from) throws IOException {
+            int read = in.read(buffer, from, buffer.length - from);
+            if (read < 0) {
+                if (remaining == Long.MAX_VALUE) {
+                    // The end of the connection is the end of the body
+                    return -1;
+                }
+                throw new EOFException("The node closed the connection");
+            }
+            return read;
+        }
+
+        private static int headEnd(byte[] buffer, int filled) {
+            for (int i = 3; i < filled; i++) {
+                if (buffer[i] == '\n' && buffer[i - 1] == '\r' && buffer[i - 2] == '\n' && buffer[i - 3] == '\r') {
+                    return i + 1;
+                }
+            }
+            return -1;
+        }
+
+        private void parseHead(String head) throws IOException {
+            remaining = Long.MAX_VALUE;
+            close = false;
+            String[] lines = head.split("\r\n");
+            String[] status = lines[0].split(" ");
+            int statusCode = status.length > 1 ? (int) parseNumber(status[1], lines[0]) : 0;
+            for (String line : lines) {
+                int colon = line.indexOf(':');
+                if (colon < 0) {
+                    continue;
+                }
+                String name = line.substring(0, colon).trim();
+                String value = line.substring(colon + 1).trim();
+                if (name.equalsIgnoreCase("Content-Length")) {
+                    remaining = parseNumber(value, lines[0]);
+                } else if (name.equalsIgnoreCase("Transfer-Encoding") && value.equalsIgnoreCase("chunked")) {
+                    remaining = -1;
+                } else if (name.equalsIgnoreCase("Connection") && value.equalsIgnoreCase("close")) {
+                    close = true;
+                }
+            }
+            if (statusCode / 100 == 1 || statusCode == 204 || statusCode == 304) {
+                remaining = 0;
+            } else if (remaining == Long.MAX_VALUE) {
+                close = true;
+            }
+        }
+
+        /**
+         * Parses a number of the head. Nothing reached the client yet, so an
+         * invalid one fails the whole request, as a 502.
+         */
+        private static long parseNumber(String value, String statusLine) throws IOException {
+            try {
+                long number = Long.parseLong(value);
+                if (number >= 0) {
+                    return number;
+                }
+            } catch (NumberFormatException e) {
+                // Reported below
+            }
+            throw new IOException("Invalid response from the node : " + statusLine);
+        }
+
+        /** @return The offset after the response, or -1 if it goes on. */
+        private int bodyEnd(byte[] buffer, int from, int to) {
+            if (remaining == -1) {
+                return chunks.scan(buffer, from, to);
+            }
+            if (remaining <= to - from) {
+                int end = from + (int) remaining;
+                remaining = 0;
+                return end;
+            }
+            remaining -= to - from;
+            return -1;
+        }
+    }
+
+    /**
+     * Follows the chunked transfer coding across reads, up to the last chunk
+     * and the trailer.
+     */
+    private static final class ChunkScanner {
+        private static final int SIZE = 0;
+        private static final int DATA = 1;
+        private static final int TRAILER = 2;
+
+        private int state = SIZE;
+        private long size;
+        private boolean extension;
+        private long left;
+        private int lineLength;
+
+        /** @return The offset after the last chunk and trailer, or -1. */
+        int scan(byte[] buffer, int from, int to) {
+            int i = from;
+            while (i < to) {
+                if (state == DATA) {
+                    int skipped = (int) Math.min(left, to - i);
+                    i += skipped;
+                    left -= skipped;
+                    if (left == 0) {
+                        state = SIZE;
+                    }
+                    continue;
+                }
+                byte b = buffer[i++];
+                if (state == SIZE) {
+                    if (b == '\n') {
+                        if (size == 0 && !extension && lineLength == 0) {
+                            // The CRLF ending the previous chunk
+                            continue;
+                        }
+                        state = size == 0 ? TRAILER : DATA;
+                        left = size;
+                        size = 0;
+                        extension = false;
+                        lineLength = 0;
+                    } else if (b == ';') {
+                        extension = true;
+                    } else if (b != '\r') {
+                        lineLength++;
+                        if (!extension && Character.digit(b, 16) >= 0) {
+                            size = size * 16 + Character.digit(b, 16);
+                        }
+                    }
+                } else if (b == '\n') {
+                    if (lineLength == 0) {
+                        return i;
+                    }
+                    lineLength = 0;
+                } else if (b != '\r') {
+                    lineLength++;
+                }
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/**
+ * The PackedGame class defines how a game is packed in three longs, so it can
+ * be stored without any object: the word to find is its
+ * {@link WordleDictionary} index and each guess is a 25-bit
+ * {@link WordleDictionary#encode packed word}, two guesses per long.
+ *
+ * <pre>
+ * state[0]: guess 0 (bits 0-24), guess 1 (bits 25-49), target index (bits 50-63)
+ * state[1]: guess 2 (bits 0-24), guess 3 (bits 25-49), attempt count (bits 50-52)
+ * state[2]: guess 4 (bits 0-24), guess 5 (bits 25-49)
+ * </pre>
+ */
+public final class PackedGame {
+
+    /** The number of guesses allowed in a game. */
+    public static final int MAX_ATTEMPTS = 6;
+    /** The number of longs of a packed game. */
+    public static final int STATE_LONGS = 3;
+
+    private static final int CODE_MASK = (1 << WordleDictionary.CODE_BITS) - 1;
+    private static final int HIGH_SHIFT = 2 * WordleDictionary.CODE_BITS;
+    private static final int TARGET_BITS = 64 - HIGH_SHIFT;
+
+    static {
+        if (WordleDictionary.size() > 1 << TARGET_BITS) {
+            throw new IllegalStateException("Dictionary too large for a packed game");
+        }
+    }
+
+    private PackedGame() {
+    }
+
+    /**
+     * Starts a game without any guess.
+     *
+     * @param targetIndex The {@link WordleDictionary} index of the word to find.
+     * @param state       The longs receiving the game.
+     */
+    public static void start(int targetIndex, long[] state) {
+        state[0] = (long) targetIndex << HIGH_SHIFT;
+        state[1] = 0;
+        state[2] = 0;
+    }
+
+    /**
+     * @param state The packed game.
+     * @return The {@link WordleDictionary} index of the word to find.
+     */
+    public static int targetIndex(long[] state) {
+        return (int) (state[0] >>> HIGH_SHIFT);
+    }
+
+    /**
+     * @param state The packed game.
+     * @return The number of guesses made so far.
+     */
+    public static int attemptCount(long[] state) {
+        return (int) (state[1] >>> HIGH_SHIFT);
+    }
+
+    /**
+     * Returns a guess in its packed form.
+     *
+     * @param state The packed game.
+     * @param index The number of the guess, from 0.
+     * @return The packed guess.
+     */
+    public static int attempt(long[] state, int index) {
+        return (int) (state[index / 2] >>> (index % 2 * WordleDictionary.CODE_BITS)) & CODE_MASK;
+    }
+
+    /**
+     * Records a guess, unless every attempt was already used.
+     *
+     * @param state The packed game, updated in place.
+     * @param code  The packed guess.
+     * @return The number of guesses including this one, or 0 if the game
+     *         already has {@link #MAX_ATTEMPTS} guesses.
+     */
+    public static int addAttempt(long[] state, int code) {
+        int count = attemptCount(state);
+        if (count >= MAX_ATTEMPTS) {
+            return 0;
+        }
+        state[count / 2] |= (long) code << (count % 2 * WordleDictionary.CODE_BITS);
+        state[1] += 1L << HIGH_SHIFT;
+        return count + 1;
+    }
+
+    /**
+     * Appends the first guesses as a list, such as {@code [CRANE, SLATE]}.
+     *
+     * @param state The packed game.
+     * @param count The number of guesses to append.
+     * @param to    Where to append the guesses.
+     * @return The StringBuilder, for chaining.
+     */
+    public static StringBuilder appendAttempts(long[] state, int count, StringBuilder to) {
+        to.append('[');
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                to.append(", ");
+            }
+            WordleDictionary.decode(attempt(state, i), to);
+        }
+        return to.append(']');
+    }
+}
@@ -0,0 +1,211 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+
+/**
+ * The SessionIdGenerator class draws the 128-bit session IDs and writes them as
+ * cookie tokens. The IDs come from a few batches, at least four per core, each
+ * with its own cryptographically strong generator drawing {@value #BATCH_IDS}
+ * IDs at once: a thread takes the batch its ID hashes to, under the lock of
+ * that batch, held for two reads. Threads seldom wait for each other and the
+ * generator is called once every {@value #BATCH_IDS} sessions, where
+ * UUID.randomUUID goes through one shared SecureRandom for every ID. Unlike a
+ * batch per thread, the batches do not grow with the threads, one per
+ * connection in the virtual mode, nor are their IDs lost when a thread ends.
+ * <p>
+ * A token is the 16 bytes of the ID in URL-safe base64 without padding, 22
+ * characters, the high bits first. The Set-Cookie line is encoded straight
+ * from the two longs into the bytes of the header, without any String. Cookies
+ * holding a UUID, the format used before, are still accepted.
+ */
+public final class SessionIdGenerator {
+
+    /** The number of characters of a token. */
+    public static final int TOKEN_LENGTH = 22;
+
+    private static final int BATCH_IDS = 256;
+    private static final byte[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_"
+            .getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] VALUES = new byte[128];
+    private static final byte[] SET_COOKIE = "Set-Cookie: SESSIONID=".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] COOKIE_ATTRIBUTES = ("; Max-Age=" + WordleServer.SESSION_MAX_AGE
+            + "; SameSite=Strict\r\n").getBytes(StandardCharsets.US_ASCII);
+
+    // A power of 2, so a thread ID hash picks a batch with a mask
+    private static final Batch[] BATCHES = new Batch[Integer
+            .highestOneBit(Runtime.getRuntime().availableProcessors() * 8 - 1)];
+
+    static {
+        for (int i = 0; i < BATCHES.length; i++) {
+            BATCHES[i] = new Batch();
+        }
+        java.util.Arrays.fill(VALUES, (byte) -1);
+        for (int i = 0; i < ALPHABET.length; i++) {
+            VALUES[ALPHABET[i]] = (byte) i;
+        }
+    }
+
+    private SessionIdGenerator() {
+    }
+
+    /**
+     * Draws a new session ID, never 0.
+     *
+     * @param id Receives the high bits, then the low bits.
+     */
+    public static void next(long[] id) {
+        long thread = Thread.currentThread().getId();
+        Batch batch = BATCHES[(int) (thread * 0x9E3779B97F4A7C15L >>> 40) & (BATCHES.length - 1)];
+        synchronized (batch) {
+            do {
+                if (!batch.ids.hasRemaining()) {
+                    batch.random.nextBytes(batch.ids.array());
+                    batch.ids.clear();
+                }
+                id[0] = batch.ids.getLong();
+                id[1] = batch.ids.getLong();
+            } while (id[0] == 0 && id[1] == 0);
+        }
+    }
+
+    /**
+     * Returns the header line setting a session cookie.
+     *
+     * @param idHigh The high bits of the session ID.
+     * @param idLow  The low bits of the session ID.
+     * @return The Set-Cookie line, ending with CRLF.
+     */
+    public static byte[] setCookieLine(long idHigh, long idLow) {
+        byte[] line = new byte[SET_COOKIE.length + TOKEN_LENGTH + COOKIE_ATTRIBUTES.length];
+        System.arraycopy(SET_COOKIE, 0, line, 0, SET_COOKIE.length);
+        encode(idHigh, idLow, line, SET_COOKIE.length);
+        System.arraycopy(COOKIE_ATTRIBUTES, 0, line, SET_COOKIE.length + TOKEN_LENGTH, COOKIE_ATTRIBUTES.length);
+        return line;
+    }
+
+    /**
+     * Returns the token of a session ID.
+     *
+     * @param idHigh The high bits of the session ID.
+     * @param idLow  The low bits of the session ID.
+     * @return The token.
+     */
+    public static String token(long idHigh, long idLow) {
+        byte[] token = new byte[TOKEN_LENGTH];
+        encode(idHigh, idLow, token, 0);
+        return new String(token, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Writes the token of a session ID.
+     *
+     * @param idHigh The high bits of the session ID.
+     * @param idLow  The low bits of the session ID.
+     * @param to     The bytes receiving the {@link #TOKEN_LENGTH} characters.
+     * @param offset Where the token starts.
+     */
+    public static void encode(long idHigh, long idLow, byte[] to, int offset) {
+        // 21 characters of 6 bits, the high bits first, then the last 2 bits
+        for (int i = 0; i < TOKEN_LENGTH - 1; i++) {
+            int shift = 122 - 6 * i;
+            long bits = shift >= 64 ? idHigh >>> (shift - 64)
+                    : shift > 58 ? idHigh << (64 - shift) | idLow >>> shift : idLow >>> shift;
+            to[offset + i] = ALPHABET[(int) bits & 63];
+        }
+        to[offset + TOKEN_LENGTH - 1] = ALPHABET[(int) (idLow & 3) << 4];
+    }
+
+    /**
+     * Reads the session ID of a cookie.
+     *
+     * @param cookie The cookie value, a token or a UUID.
+     * @param id     Receives the high bits, then the low bits.
+     * @return true if the cookie is a token or a UUID of an ID other than 0.
+     */
+    public static boolean parse(String cookie, long[] id) {
+        id[0] = 0;
+        id[1] = 0;
+        if (cookie == null) {
+            return false;
+        }
+        if (cookie.length() == TOKEN_LENGTH) {
+            if (!decode(cookie, id)) {
+                id[0] = 0;
+                id[1] = 0;
+            }
+        } else if (isUuid(cookie)) {
+            id[0] = parseHex(cookie, 0, 18);
+            id[1] = parseHex(cookie, 19, 36);
+        }
+        return id[0] != 0 || id[1] != 0;
+    }
+
+    private static boolean decode(String token, long[] id) {
+        long high = 0;
+        long low = 0;
+        for (int i = 0; i < TOKEN_LENGTH; i++) {
+            char c = token.charAt(i);
+            int value = c < 128 ? VALUES[c] : -1;
+            if (value < 0) {
+                return false;
+            }
+            if (i == TOKEN_LENGTH - 1) {
+                if ((value & 15) != 0) {
+                    return false;
+                }
+                value >>>= 4;
+                high = high << 2 | low >>> 62;
+                low = low << 2 | value;
+            } else {
+                high = high << 6 | low >>> 58;
+                low = low << 6 | value;
+            }
+        }
+        id[0] = high;
+        id[1] = low;
+        return true;
+    }
+
+    private static boolean isUuid(String text) {
+        if (text.length() != 36) {
+            return false;
+        }
+        for (int i = 0; i < 36; i++) {
+            char c = text.charAt(i);
+            boolean dash = i == 8 || i == 13 || i == 18 || i == 23;
+            if (dash ? c != '-' : Character.digit(c, 16) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long parseHex(String text, int from, int to) {
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            if (text.charAt(i) != '-') {
+                value = value << 4 | Character.digit(text.charAt(i), 16);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * A generator and the IDs it drew ahead, shared by the threads hashed to it.
+     */
+    private static final class Batch {
+        private final SecureRandom random = newRandom();
+        private final ByteBuffer ids = ByteBuffer.allocate(BATCH_IDS * 16).position(BATCH_IDS * 16);
+
+        private static SecureRandom newRandom() {
+            try {
+                // An instance of its own, seeded once, unlike the default one
+                // reading a source shared by the whole process
+                return SecureRandom.getInstance("DRBG");
+            } catch (NoSuchAlgorithmException e) {
+                return new SecureRandom();
+            }
+        }
+    }
+}
@@ -0,0 +1,679 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+
+/**
+ * The SessionLog class makes the games of a {@link SessionTable} survive a
+ * restart. Every game started, guess recorded and game ended is appended to a
+ * write-ahead log as a fixed 40-byte record, and a compact snapshot of the
+ * whole table is written from time to time so the log stays short.
+ * <p>
+ * Records are appended to a buffer in memory, one per segment of the table,
+ * which is only ever appended to under the lock of its segment: games of
+ * different segments never wait for each other to be logged. A single writer
+ * thread takes everything appended to the buffers since its last write and
+ * writes it as one frame, so the cost of a write and of an fsync is shared by
+ * every guess of the batch. A buffer holds at most
+ * {@value #BUFFER_RECORDS} records: when the writer falls that far behind, the
+ * changes of the segment wait for it. The records of a session are all in the
+ * buffer of its segment, so they reach the log in the order they were made.
+ * The sync policy is one of:
+ * <ul>
+ * <li>{@code always}: every frame is synced before the guesses it holds are
+ * answered, nothing answered is ever lost.</li>
+ * <li>{@code <millis>}: the log is synced at most that often and guesses are
+ * answered without waiting, a crash loses at most that much.</li>
+ * <li>{@code never}: the operating system writes the log when it chooses.</li>
+ * </ul>
+ * <p>
+ * When the log reaches {@value #SNAPSHOT_BYTES} bytes, or after
+ * {@value #SNAPSHOT_INTERVAL_MILLIS} ms, the writer moves on to a new log file
+ * and a background thread writes the table to a snapshot, renamed into place
+ * once complete; the older snapshot and logs are then deleted. Replaying a
+ * record a snapshot already holds changes nothing, so the games changed while
+ * the snapshot is written only need the new log. Recovery loads the latest
+ * snapshot and replays the logs that follow it, stopping at a frame torn by a
+ * crash.
+ * <p>
+ * A write or a sync that fails may leave a torn frame, so nothing more is
+ * appended to that log: the guesses waiting for the failed records are told
+ * they were not saved, and before any other record is written the writer moves
+ * on to a new log and writes a snapshot at once, which holds the games the
+ * failed records changed. Until it succeeds, every record fails the same way.
+ *
+ * <pre>
+ * log frame : length of the records (4 bytes), CRC32 of the records (4 bytes), records
+ * record    : type (1), guess count (1), unused (2), target index or packed guess (4),
+ *             session ID high (8), session ID low (8), game creation time (8), time (8)
+ * snapshot  : magic (4), version (4), game count (8), games
+ * </pre>
+ */
+public class SessionLog {
+
+    /** The log size after which a snapshot is written. */
+    public static final long SNAPSHOT_BYTES = 64L * 1024 * 1024;
+    /** The time after which a snapshot is written if anything was logged. */
+    public static final long SNAPSHOT_INTERVAL_MILLIS = 5 * 60 * 1000;
+
+    private static final int RECORD_SIZE = 40;
+    private static final int FRAME_HEADER_SIZE = 8;
+    private static final byte CREATE = 1;
+    private static final byte GUESS = 2;
+    private static final byte END = 3;
+    private static final int SNAPSHOT_MAGIC = 0x574F5344;
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final int SNAPSHOT_HEADER_SIZE = 16;
+    private static final int BUFFER_RECORDS = 512;
+    private static final long IDLE_WAIT_MILLIS = 1000;
+
+    private final SessionTable table;
+    private final Path directory;
+    // 0 to sync every frame, -1 to never sync, or the time between two syncs
+    private final long syncIntervalMillis;
+
+    // One per segment of the table, each guarded by itself
+    private final Buffer[] buffers = new Buffer[SessionTable.SEGMENTS];
+    // The records appended since the start, counted once each is buffered
+    private final AtomicLong appended = new AtomicLong();
+    private volatile boolean writerWaiting;
+    private volatile boolean closing;
+    // Set while the writer cannot drain the buffers, which grow meanwhile
+    private volatile boolean unbounded;
+
+    // Only used by the writer thread
+    private final ByteBuffer batch = ByteBuffer.allocateDirect(SessionTable.SEGMENTS * BUFFER_RECORDS * RECORD_SIZE);
+    private FileChannel log;
+    private long logIndex;
+    private long sinceSnapshot;
+    private long snapshotAt = System.currentTimeMillis();
+
+    private final Object durability = new Object();
+    private volatile long durable;
+    // The records after durable and up to this one failed to be written
+    private long failed;
+    private volatile Thread snapshotter;
+    private volatile long frames;
+    private volatile long syncs;
+    private final Thread writer;
+
+    /**
+     * Recovers the games of a directory into an empty table, then logs every
+     * change of the table.
+     *
+     * @param table      The table, still empty.
+     * @param directory  The directory of the snapshot and the logs, created if
+     *                   needed.
+     * @param syncPolicy {@code always}, {@code never}, or the time in
+     *                   milliseconds between two syncs.
+     * @throws IOException              If the directory cannot be read or the
+     *                                  log cannot be opened.
+     * @throws IllegalArgumentException If the sync policy is invalid.
+     */
+    public SessionLog(SessionTable table, String directory, String syncPolicy) throws IOException {
+        this.table = table;
+        this.directory = Paths.get(directory);
+        this.syncIntervalMillis = parseSyncPolicy(syncPolicy);
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = new Buffer();
+        }
+        Files.createDirectories(this.directory);
+        long start = System.nanoTime();
+        logIndex = recover();
+        log = openLog(logIndex);
+        System.out.println("Recovered " + table.getLiveCount() + " games from " + directory + " in "
+                + (System.nanoTime() - start) / 1000000 + " ms");
+        // Set before the first append, which may wake it up
+        writer = new Thread(this::run, "wordle-session-log");
+        writer.setDaemon(true);
+        table.setLog(this);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close));
+    }
+
+    private static long parseSyncPolicy(String policy) {
+        switch (policy) {
+            case "always":
+                return 0;
+            case "never":
+                return -1;
+            default:
+                try {
+                    long millis = Long.parseLong(policy);
+                    if (millis > 0) {
+                        return millis;
+                    }
+                } catch (NumberFormatException e) {
+                    // Reported below
+                }
+                throw new IllegalArgumentException("Invalid fsync policy : " + policy);
+        }
+    }
+
+    void created(int segment, long idHigh, long idLow, int targetIndex, long now) {
+        append(segment, CREATE, 0, targetIndex, idHigh, idLow, now, now);
+    }
+
+    void guessed(int segment, long idHigh, long idLow, long createdAt, int count, int code, long now) {
+        append(segment, GUESS, count, code, idHigh, idLow, createdAt, now);
+    }
+
+    void ended(int segment, long idHigh, long idLow, long createdAt) {
+        append(segment, END, 0, 0, idHigh, idLow, createdAt, 0);
+    }
+
+    /** Called with the lock of the segment held. */
+    private void append(int segment, byte type, int count, int value, long idHigh, long idLow, long createdAt,
+            long time) {
+        Buffer buffer = buffers[segment];
+        synchronized (buffer) {
+            while (buffer.records.remaining() < RECORD_SIZE) {
+                if (unbounded || closing) {
+                    // The writer is not draining, buffer more until it does
+                    ByteBuffer larger = ByteBuffer.allocateDirect(buffer.records.capacity() * 2);
+                    buffer.records.flip();
+                    larger.put(buffer.records);
+                    buffer.records = larger;
+                    break;
+                }
+                // The writer is behind, the segment waits for it
+                buffer.full = true;
+                LockSupport.unpark(writer);
+                try {
+                    buffer.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    unbounded = true;
+                }
+            }
+            buffer.records.put(type).put((byte) count).putShort((short) 0).putInt(value).putLong(idHigh)
+                    .putLong(idLow).putLong(createdAt).putLong(time);
+            // Counted once buffered, so the writer finds every record counted
+            // when it next locks the buffer
+            appended.incrementAndGet();
+        }
+        if (writerWaiting) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    /**
+     * Blocks until the records appended so far are synced, when the policy is
+     * {@code always}. Returns at once with any other policy.
+     *
+     * @throws IOException If the records could not be written to the log.
+     */
+    void awaitDurable() throws IOException {
+        if (syncIntervalMillis != 0) {
+            return;
+        }
+        long target = appended.get();
+        if (durable >= target) {
+            return;
+        }
+        synchronized (durability) {
+            while (durable < target) {
+                if (failed >= target) {
+                    throw new IOException("The session log could not be written");
+                }
+                try {
+                    durability.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /** @return The number of records appended since the start. */
+    public long getRecordCount() {
+        return appended.get();
+    }
+
+    /** @return The number of frames written since the start. */
+    public long getFrameCount() {
+        return frames;
+    }
+
+    /** @return The number of syncs since the start. */
+    public long getSyncCount() {
+        return syncs;
+    }
+
+    /**
+     * Writes the records still buffered and syncs the log, waiting for the
+     * writer and for a snapshot being written to finish.
+     */
+    public void close() {
+        closing = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+            Thread thread = snapshotter;
+            if (thread != null) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writes the buffered records as one frame whenever there are some,
+     * syncing as the policy requires, and starts the snapshots.
+     */
+    private void run() {
+        ByteBuffer header = ByteBuffer.allocateDirect(FRAME_HEADER_SIZE);
+        ByteBuffer[] frame = { header, batch };
+        CRC32 crc = new CRC32();
+        long syncedAt = System.currentTimeMillis();
+        boolean unsynced = false;
+        // Set when a write or a sync failed, until a new log and snapshot are written
+        boolean broken = false;
+        // The records taken from the buffers so far
+        long taken = 0;
+        while (true) {
+            if (appended.get() == taken && !closing) {
+                writerWaiting = true;
+                // Checked again once the appenders can see the flag
+                if (appended.get() == taken && !closing) {
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS
+                            .toNanos(syncIntervalMillis > 0 ? syncIntervalMillis : IDLE_WAIT_MILLIS));
+                }
+                writerWaiting = false;
+            }
+            boolean stop = closing;
+            // Every record counted here is in its buffer once the buffer is locked
+            long upTo = appended.get();
+            boolean complete = drain();
+            if (complete) {
+                taken = upTo;
+            }
+            long now = System.currentTimeMillis();
+            try {
+                if (broken) {
+                    restartLog(now);
+                    broken = false;
+                }
+                if (batch.position() > 0) {
+                    batch.flip();
+                    crc.reset();
+                    crc.update(batch.duplicate());
+                    header.clear();
+                    header.putInt(batch.remaining()).putInt((int) crc.getValue()).flip();
+                    sinceSnapshot += FRAME_HEADER_SIZE + batch.remaining();
+                    while (batch.hasRemaining()) {
+                        log.write(frame);
+                    }
+                    frames++;
+                    unsynced = true;
+                }
+                if (unsynced && syncIntervalMillis >= 0 && (stop || now - syncedAt >= syncIntervalMillis)) {
+                    log.force(false);
+                    syncs++;
+                    syncedAt = now;
+                    unsynced = false;
+                }
+                if (complete) {
+                    synchronized (durability) {
+                        durable = upTo;
+                        durability.notifyAll();
+                    }
+                }
+            } catch (IOException e) {
+                // The log may end with a torn frame, the guesses waiting for these
+                // records are not answered as saved and the next ones go elsewhere
+                System.out.println("Problem : " + e.getMessage() + ", moving on to a new log and snapshot");
+                broken = true;
+                unsynced = false;
+                synchronized (durability) {
+                    failed = upTo;
+                    durability.notifyAll();
+                }
+            }
+            batch.clear();
+            if (stop && complete) {
+                try {
+                    if (log != null) {
+                        log.close();
+                    }
+                } catch (IOException e) {
+                    System.out.println("Problem : " + e.getMessage());
+                }
+                return;
+            }
+            if (!broken && snapshotter == null && (sinceSnapshot >= SNAPSHOT_BYTES
+                    || sinceSnapshot > 0 && now - snapshotAt >= SNAPSHOT_INTERVAL_MILLIS)) {
+                try {
+                    startSnapshot(now);
+                    unsynced = false;
+                } catch (IOException e) {
+                    System.out.println("Problem : " + e.getMessage());
+                    broken = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Moves the records of every buffer to the batch, as many as fit, and wakes
+     * up the segments waiting for room.
+     *
+     * @return true if every buffer was emptied.
+     */
+    private boolean drain() {
+        boolean complete = true;
+        for (Buffer buffer : buffers) {
+            synchronized (buffer) {
+                ByteBuffer records = buffer.records;
+                if (records.position() == 0) {
+                    continue;
+                }
+                records.flip();
+                if (records.remaining() > batch.remaining()) {
+                    // Grown while the writer was not draining, the rest goes in the next frames
+                    int limit = records.limit();
+                    records.limit(records.position() + batch.remaining() / RECORD_SIZE * RECORD_SIZE);
+                    batch.put(records);
+                    records.limit(limit);
+                    complete = false;
+                }
+                batch.put(records);
+                records.compact();
+                if (records.position() == 0 && records.capacity() > BUFFER_RECORDS * RECORD_SIZE) {
+                    buffer.records = ByteBuffer.allocateDirect(BUFFER_RECORDS * RECORD_SIZE);
+                }
+                if (buffer.full) {
+                    buffer.full = false;
+                    buffer.notifyAll();
+                }
+            }
+        }
+        return complete;
+    }
+
+    /**
+     * Moves on to a new log and writes a snapshot in the background. Every
+     * change logged before was made to the table before the snapshot starts
+     * copying it, so the snapshot and the new log together hold every game.
+     */
+    private void startSnapshot(long now) throws IOException {
+        log.force(false);
+        switchLog(now);
+        long index = logIndex;
+        snapshotter = new Thread(() -> {
+            try {
+                writeSnapshot(index);
+            } catch (IOException e) {
+                // The previous snapshot and the logs since are kept, nothing is lost
+                System.out.println("Problem : " + e.getMessage());
+            } finally {
+                snapshotter = null;
+            }
+        }, "wordle-session-snapshot");
+        snapshotter.setDaemon(true);
+        snapshotter.start();
+    }
+
+    /**
+     * Leaves a log that failed for a new one and writes a snapshot before
+     * returning, once a snapshot being written is done. The table already holds
+     * the changes of the records that failed, so the snapshot and the new log
+     * together hold every game again.
+     */
+    private void restartLog(long now) throws IOException {
+        // The snapshots lock the segments, which must not wait for the writer meanwhile
+        unbounded = true;
+        for (Buffer buffer : buffers) {
+            synchronized (buffer) {
+                buffer.notifyAll();
+            }
+        }
+        try {
+            recreateLog(now);
+        } finally {
+            unbounded = false;
+        }
+    }
+
+    private void recreateLog(long now) throws IOException {
+        Thread thread = snapshotter;
+        if (thread != null) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a snapshot");
+            }
+        }
+        if (log != null && log.size() == 0) {
+            // The log of a restart whose snapshot failed, nothing was written to it
+            writeSnapshot(logIndex);
+            return;
+        }
+        if (log != null) {
+            try {
+                log.close();
+            } catch (IOException e) {
+                // Nothing more is written to it anyway
+            }
+            log = null;
+        }
+        switchLog(now);
+        writeSnapshot(logIndex);
+    }
+
+    /** Closes the log and opens the next one, where the next snapshot starts. */
+    private void switchLog(long now) throws IOException {
+        if (log != null) {
+            log.close();
+            log = null;
+        }
+        logIndex++;
+        log = openLog(logIndex);
+        sinceSnapshot = 0;
+        snapshotAt = now;
+    }
+
+    private void writeSnapshot(long index) throws IOException {
+        long start = System.nanoTime();
+        Path temporary = directory.resolve(snapshotName(index) + ".tmp");
+        long count;
+        try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(SNAPSHOT_HEADER_SIZE);
+            out.position(SNAPSHOT_HEADER_SIZE);
+            count = table.writeSnapshot(out);
+            header.putInt(SNAPSHOT_MAGIC).putInt(SNAPSHOT_VERSION).putLong(count).flip();
+            while (header.hasRemaining()) {
+                out.write(header, header.position());
+            }
+            out.force(true);
+        } catch (IOException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+        Files.move(temporary, directory.resolve(snapshotName(index)), StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if ((isSnapshot(name) || isLog(name)) && fileIndex(name) < index) {
+                    Files.delete(file);
+                }
+            }
+        }
+        System.out.println("Snapshot of " + count + " games written in "
+                + (System.nanoTime() - start) / 1000000 + " ms");
+    }
+
+    /**
+     * Loads the latest snapshot and replays the logs following it.
+     *
+     * @return The index of the next log.
+     */
+    private long recover() throws IOException {
+        long snapshot = -1;
+        List<Long> logs = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(".tmp")) {
+                    // A snapshot interrupted by a crash
+                    Files.delete(file);
+                } else if (isSnapshot(name)) {
+                    snapshot = Math.max(snapshot, fileIndex(name));
+                } else if (isLog(name)) {
+                    logs.add(fileIndex(name));
+                }
+            }
+        }
+        long next = Math.max(snapshot, 0);
+        if (snapshot >= 0) {
+            readSnapshot(directory.resolve(snapshotName(snapshot)));
+        }
+        Collections.sort(logs);
+        for (long index : logs) {
+            if (index >= snapshot) {
+                sinceSnapshot += replay(directory.resolve(logName(index)));
+            }
+            // A log may end with a torn frame, never append after it
+            next = Math.max(next, index + 1);
+        }
+        return next;
+    }
+
+    private void readSnapshot(Path file) throws IOException {
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(SNAPSHOT_HEADER_SIZE);
+            while (header.hasRemaining() && in.read(header) >= 0) {
+                // Read the whole header
+            }
+            header.flip();
+            if (header.remaining() < SNAPSHOT_HEADER_SIZE || header.getInt() != SNAPSHOT_MAGIC
+                    || header.getInt() != SNAPSHOT_VERSION) {
+                throw new IOException("Invalid snapshot " + file);
+            }
+            table.readSnapshot(in, header.getLong());
+        }
+    }
+
+    /**
+     * Replays the records of a log up to its end or to its first invalid
+     * frame.
+     *
+     * @return The size of the frames replayed.
+     */
+    private long replay(Path file) throws IOException {
+        MappedByteBuffer records;
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            records = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+        }
+        CRC32 crc = new CRC32();
+        while (records.remaining() >= FRAME_HEADER_SIZE) {
+            int length = records.getInt(records.position());
+            int checksum = records.getInt(records.position() + 4);
+            if (length <= 0 || length % RECORD_SIZE != 0 || length > records.remaining() - FRAME_HEADER_SIZE) {
+                break;
+            }
+            ByteBuffer frame = records.slice(records.position() + FRAME_HEADER_SIZE, length);
+            crc.reset();
+            crc.update(frame.duplicate());
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            while (frame.hasRemaining()) {
+                apply(frame);
+            }
+            records.position(records.position() + FRAME_HEADER_SIZE + length);
+        }
+        if (records.hasRemaining()) {
+            System.out.println("Problem : ignoring the last " + records.remaining() + " bytes of " + file);
+        }
+        return records.position();
+    }
+
+    private void apply(ByteBuffer record) {
+        byte type = record.get();
+        int count = record.get();
+        record.getShort();
+        int value = record.getInt();
+        long idHigh = record.getLong();
+        long idLow = record.getLong();
+        long createdAt = record.getLong();
+        long time = record.getLong();
+        switch (type) {
+            case CREATE:
+                table.replayCreate(idHigh, idLow, value, createdAt);
+                break;
+            case GUESS:
+                table.replayGuess(idHigh, idLow, createdAt, count, value, time);
+                break;
+            case END:
+                table.replayEnd(idHigh, idLow, createdAt);
+                break;
+            default:
+                throw new IllegalStateException("Unknown log record type " + type);
+        }
+    }
+
+    private FileChannel openLog(long index) throws IOException {
+        FileChannel channel = FileChannel.open(directory.resolve(logName(index)), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        syncDirectory();
+        return channel;
+    }
+
+    /** Makes the files created or renamed in the directory durable. */
+    private void syncDirectory() {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Not every platform can sync a directory, the file data is synced anyway
+        }
+    }
+
+    private static String logName(long index) {
+        return String.format("wal-%010d.log", index);
+    }
+
+    private static String snapshotName(long index) {
+        return String.format("snapshot-%010d.bin", index);
+    }
+
+    private static boolean isLog(String name) {
+        return name.startsWith("wal-") && name.endsWith(".log");
+    }
+
+    private static boolean isSnapshot(String name) {
+        return name.startsWith("snapshot-") && name.endsWith(".bin");
+    }
+
+    private static long fileIndex(String name) {
+        return Long.parseLong(name.substring(name.indexOf('-') + 1, name.indexOf('.')));
+    }
+
+    /**
+     * The records of one segment of the table not taken by the writer yet.
+     */
+    private static final class Buffer {
+        private ByteBuffer records = ByteBuffer.allocateDirect(BUFFER_RECORDS * RECORD_SIZE);
+        // Set when a segment waits for room
+        private boolean full;
+    }
+}
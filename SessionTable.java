@@ -0,0 +1,660 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * The SessionTable class stores the games outside of the Java heap, so the
+ * garbage collector has nothing to trace however many games are live. Each game
+ * is a 64-byte record, one cache line, in a direct ByteBuffer: the 128-bit
+ * session ID, the {@link PackedGame} and two timestamps. Nothing is allocated
+ * to look a game up or to update it.
+ * <p>
+ * The table is split into segments, each an open addressing hash table with
+ * linear probing and its own lock, so players whose sessions fall into
+ * different segments never contend. Removal shifts the following records back
+ * instead of leaving tombstones. A segment doubles when it is three quarters
+ * full, up to its share of the capacity; past it, a new game evicts the least
+ * recently played of a few sampled ones.
+ * <p>
+ * Idle games are removed by a timing wheel per segment, a slot per second of
+ * deadline. Each record is linked into the slot of its deadline by the two
+ * indexes of its last 8 bytes, so the wheel takes no memory of its own but an
+ * int per slot, and the links follow a record whenever it moves. A guess does
+ * not move its game to a later slot: when a slot comes due, the games played
+ * since are linked again to the slot of their new deadline and the others are
+ * removed. Expiry thus costs in proportion to the games due, never to the
+ * capacity of the table.
+ * <p>
+ * With a {@link SessionLog}, every game started, guess recorded and game ended
+ * is appended to the log while the segment is still locked, so the log holds
+ * the changes of a session in the order they were made.
+ *
+ * <pre>
+ * offset  0: session ID, high bits (0 marks an empty record)
+ * offset  8: session ID, low bits
+ * offset 16: packed game, 3 longs
+ * offset 40: creation time
+ * offset 48: last access time
+ * offset 56: previous record of the wheel slot, plus 1, or the complement of
+ *            the slot for its first record (0 when unlinked)
+ * offset 60: next record of the wheel slot, plus 1 (0 for the last one)
+ * </pre>
+ */
+public class SessionTable {
+
+    private static final int RECORD_SIZE = 64;
+    private static final int ID_HIGH = 0;
+    private static final int ID_LOW = 8;
+    private static final int STATE = 16;
+    private static final int CREATED_AT = 40;
+    private static final int LAST_ACCESSED_AT = 48;
+    private static final int WHEEL_PREVIOUS = 56;
+    private static final int WHEEL_NEXT = 60;
+
+    private static final int SEGMENT_BITS = 6;
+    /** The number of segments, each with its own lock. */
+    static final int SEGMENTS = 1 << SEGMENT_BITS;
+    private static final int INITIAL_RECORDS = 1024;
+    private static final int EVICTION_SAMPLES = 8;
+    private static final long TICK_MILLIS = 1000;
+
+    /** The size of a game in a snapshot: the record without its wheel links. */
+    static final int SNAPSHOT_RECORD_SIZE = 56;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final IntSupplier targetIndexes;
+    private final long timeoutMillis;
+    private final int maxRecords;
+    private final int wheelSlots;
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+    private volatile SessionLog log;
+
+    /**
+     * Creates an empty table.
+     *
+     * @param targetIndexes Picks the dictionary index of the word to find for
+     *                      each new game.
+     * @param timeoutMillis The time after which an idle game is removed.
+     * @param capacity      The number of games above which the least recently
+     *                      played are evicted, rounded up to a power of two
+     *                      records per segment.
+     */
+    public SessionTable(IntSupplier targetIndexes, long timeoutMillis, int capacity) {
+        this.targetIndexes = targetIndexes;
+        this.timeoutMillis = timeoutMillis;
+        long perSegment = (long) Math.ceil(capacity / 0.75 / segments.length);
+        int records = INITIAL_RECORDS;
+        while (records < perSegment && records < Integer.MAX_VALUE / RECORD_SIZE / 2) {
+            records *= 2;
+        }
+        this.maxRecords = records;
+        // One turn of the wheel is longer than the timeout, so no deadline wraps around
+        this.wheelSlots = Integer.highestOneBit((int) (timeoutMillis / TICK_MILLIS) + 1) * 2;
+        long tick = System.currentTimeMillis() / TICK_MILLIS;
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment(i, Math.min(INITIAL_RECORDS, maxRecords), tick);
+        }
+    }
+
+    /**
+     * Removes idle games every second on a daemon thread.
+     */
+    public void start() {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "wordle-session-expiry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(() -> expire(System.currentTimeMillis()), TICK_MILLIS, TICK_MILLIS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Appends every later change to a log. The table must already hold the
+     * games recovered from that log.
+     *
+     * @param log The log.
+     */
+    void setLog(SessionLog log) {
+        this.log = log;
+    }
+
+    /**
+     * Records a guess in the game of a session, starting the game if there is
+     * none. Nothing is recorded if every attempt was already used.
+     *
+     * @param idHigh The high bits of the session ID.
+     * @param idLow  The low bits of the session ID.
+     * @param code   The {@link WordleDictionary#encode packed} guess.
+     * @param state  Receives the game, this guess included, as
+     *               {@link PackedGame#STATE_LONGS} longs.
+     * @return The number of guesses including this one, or 0 if the game
+     *         already had {@link PackedGame#MAX_ATTEMPTS} guesses.
+     */
+    public int addAttempt(long idHigh, long idLow, int code, long[] state) {
+        long hash = hash(idHigh, idLow);
+        Segment segment = segments[(int) (hash >>> (64 - SEGMENT_BITS))];
+        long now = System.currentTimeMillis();
+        synchronized (segment) {
+            int record = segment.getOrCreate(idHigh, idLow, hash, now, state);
+            ByteBuffer records = segment.records;
+            for (int i = 0; i < PackedGame.STATE_LONGS; i++) {
+                state[i] = records.getLong(record + STATE + 8 * i);
+            }
+            int count = PackedGame.addAttempt(state, code);
+            if (count > 0) {
+                for (int i = 0; i < PackedGame.STATE_LONGS; i++) {
+                    records.putLong(record + STATE + 8 * i, state[i]);
+                }
+                SessionLog log = this.log;
+                if (log != null) {
+                    log.guessed(segment.index, idHigh, idLow, records.getLong(record + CREATED_AT), count, code, now);
+                }
+            }
+            records.putLong(record + LAST_ACCESSED_AT, now);
+            return count;
+        }
+    }
+
+    /**
+     * Ends the game of a session.
+     *
+     * @param idHigh The high bits of the session ID.
+     * @param idLow  The low bits of the session ID.
+     * @return true if there was a game.
+     */
+    public boolean remove(long idHigh, long idLow) {
+        long hash = hash(idHigh, idLow);
+        Segment segment = segments[(int) (hash >>> (64 - SEGMENT_BITS))];
+        synchronized (segment) {
+            int record = segment.find(idHigh, idLow, hash);
+            if (record < 0) {
+                return false;
+            }
+            segment.delete(record);
+            return true;
+        }
+    }
+
+    /**
+     * Blocks until the changes made so far are durable, if the log syncs
+     * before answering.
+     *
+     * @throws IOException If the log failed to write the changes.
+     */
+    public void awaitDurable() throws IOException {
+        SessionLog log = this.log;
+        if (log != null) {
+            log.awaitDurable();
+        }
+    }
+
+    /**
+     * Replays a logged game start. A game of the session started later, which
+     * a snapshot may already hold, is kept.
+     *
+     * @param idHigh      The high bits of the session ID.
+     * @param idLow       The low bits of the session ID.
+     * @param targetIndex The dictionary index of the word to find.
+     * @param createdAt   The time the game started.
+     */
+    void replayCreate(long idHigh, long idLow, int targetIndex, long createdAt) {
+        long[] state = new long[PackedGame.STATE_LONGS];
+        PackedGame.start(targetIndex, state);
+        restore(idHigh, idLow, state, createdAt, createdAt);
+    }
+
+    /**
+     * Replays a logged guess, unless the game it belongs to is gone or
+     * already holds it.
+     *
+     * @param idHigh    The high bits of the session ID.
+     * @param idLow     The low bits of the session ID.
+     * @param createdAt The time the game started, telling it from other games
+     *                  of the session.
+     * @param count     The number of guesses including this one.
+     * @param code      The packed guess.
+     * @param time      The time of the guess.
+     */
+    void replayGuess(long idHigh, long idLow, long createdAt, int count, int code, long time) {
+        long hash = hash(idHigh, idLow);
+        Segment segment = segments[(int) (hash >>> (64 - SEGMENT_BITS))];
+        synchronized (segment) {
+            int record = segment.find(idHigh, idLow, hash);
+            ByteBuffer records = segment.records;
+            if (record < 0 || records.getLong(record + CREATED_AT) != createdAt) {
+                return;
+            }
+            long[] state = new long[PackedGame.STATE_LONGS];
+            for (int i = 0; i < PackedGame.STATE_LONGS; i++) {
+                state[i] = records.getLong(record + STATE + 8 * i);
+            }
+            if (PackedGame.attemptCount(state) != count - 1) {
+                return;
+            }
+            PackedGame.addAttempt(state, code);
+            for (int i = 0; i < PackedGame.STATE_LONGS; i++) {
+                records.putLong(record + STATE + 8 * i, state[i]);
+            }
+            records.putLong(record + LAST_ACCESSED_AT, time);
+        }
+    }
+
+    /**
+     * Replays a logged game end, unless the session already holds a later
+     * game.
+     *
+     * @param idHigh    The high bits of the session ID.
+     * @param idLow     The low bits of the session ID.
+     * @param createdAt The time the ended game started.
+     */
+    void replayEnd(long idHigh, long idLow, long createdAt) {
+        long hash = hash(idHigh, idLow);
+        Segment segment = segments[(int) (hash >>> (64 - SEGMENT_BITS))];
+        synchronized (segment) {
+            int record = segment.find(idHigh, idLow, hash);
+            if (record >= 0 && segment.records.getLong(record + CREATED_AT) <= createdAt) {
+                segment.delete(record);
+            }
+        }
+    }
+
+    /**
+     * Writes every game, {@link #SNAPSHOT_RECORD_SIZE} bytes each. A segment
+     * is locked only while its games are copied, so the table keeps serving;
+     * the games changed meanwhile are found again in the log.
+     *
+     * @param out Where to write the games.
+     * @return The number of games written.
+     * @throws IOException If the games cannot be written.
+     */
+    long writeSnapshot(WritableByteChannel out) throws IOException {
+        ByteBuffer copy = ByteBuffer.allocateDirect(INITIAL_RECORDS * SNAPSHOT_RECORD_SIZE);
+        long count = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                if (copy.capacity() < segment.size * SNAPSHOT_RECORD_SIZE) {
+                    copy = ByteBuffer.allocateDirect(segment.size * SNAPSHOT_RECORD_SIZE);
+                }
+                copy.clear();
+                ByteBuffer records = segment.records;
+                for (int record = 0; record < records.capacity(); record += RECORD_SIZE) {
+                    if (!segment.isEmpty(record)) {
+                        for (int offset = 0; offset < SNAPSHOT_RECORD_SIZE; offset += 8) {
+                            copy.putLong(records.getLong(record + offset));
+                        }
+                    }
+                }
+            }
+            count += copy.position() / SNAPSHOT_RECORD_SIZE;
+            copy.flip();
+            while (copy.hasRemaining()) {
+                out.write(copy);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Reads games written by {@link #writeSnapshot}.
+     *
+     * @param in    Where to read the games.
+     * @param count The number of games to read.
+     * @throws IOException If the games cannot be read.
+     */
+    void readSnapshot(ReadableByteChannel in, long count) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(INITIAL_RECORDS * 64 * SNAPSHOT_RECORD_SIZE);
+        long[] state = new long[PackedGame.STATE_LONGS];
+        while (count > 0) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), count * SNAPSHOT_RECORD_SIZE));
+            while (buffer.hasRemaining()) {
+                if (in.read(buffer) < 0) {
+                    throw new IOException("Snapshot truncated");
+                }
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                long idHigh = buffer.getLong();
+                long idLow = buffer.getLong();
+                for (int i = 0; i < PackedGame.STATE_LONGS; i++) {
+                    state[i] = buffer.getLong();
+                }
+                restore(idHigh, idLow, state, buffer.getLong(), buffer.getLong());
+                count--;
+            }
+        }
+    }
+
+    /**
+     * Puts back a game, unless the session holds a game started as late.
+     */
+    private void restore(long idHigh, long idLow, long[] state, long createdAt, long lastAccessedAt) {
+        long hash = hash(idHigh, idLow);
+        Segment segment = segments[(int) (hash >>> (64 - SEGMENT_BITS))];
+        synchronized (segment) {
+            int record = segment.find(idHigh, idLow, hash);
+            if (record >= 0) {
+                if (segment.records.getLong(record + CREATED_AT) >= createdAt) {
+                    return;
+                }
+                segment.delete(record);
+            }
+            segment.insert(idHigh, idLow, hash, state, createdAt, lastAccessedAt);
+        }
+    }
+
+    /** @return The number of games in the table. */
+    public long getLiveCount() {
+        long live = 0;
+        for (Segment segment : segments) {
+            live += segment.size;
+        }
+        return live;
+    }
+
+    /** @return The number of games above which new games evict older ones. */
+    public long getCapacity() {
+        return (long) maxRecords / 4 * 3 * segments.length;
+    }
+
+    /** @return The number of games removed because they were idle. */
+    public long getExpiredCount() {
+        return expired.sum();
+    }
+
+    /** @return The number of games removed because the table was full. */
+    public long getEvictedCount() {
+        return evicted.sum();
+    }
+
+    /** @return The bytes of direct memory held by the table. */
+    public long getReservedBytes() {
+        long bytes = 0;
+        for (Segment segment : segments) {
+            bytes += segment.records.capacity();
+        }
+        return bytes;
+    }
+
+    /**
+     * Processes the wheel slots of every segment up to the given time,
+     * removing the games idle for longer than the timeout.
+     *
+     * @param now The current time, in milliseconds since the epoch.
+     */
+    public void expire(long now) {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.expire(now);
+            }
+        }
+    }
+
+    private static long hash(long idHigh, long idLow) {
+        long hash = idHigh * 0x9E3779B97F4A7C15L ^ idLow;
+        hash ^= hash >>> 32;
+        hash *= 0xD6E8FEB86659FD93L;
+        return hash ^ hash >>> 32;
+    }
+
+    /**
+     * One hash table of the records, guarded by its own monitor.
+     */
+    private final class Segment {
+        // Its place in the table, which picks its buffer in the log
+        private final int index;
+        private ByteBuffer records;
+        private int mask;
+        private volatile int size;
+        // Where the eviction samples start
+        private int hand;
+        // The first record of each slot, plus 1, 0 for none
+        private final int[] wheel = new int[wheelSlots];
+        // The next slot to process
+        private long tick;
+
+        Segment(int index, int capacity, long tick) {
+            this.index = index;
+            this.tick = tick;
+            allocate(capacity);
+        }
+
+        private void allocate(int capacity) {
+            records = ByteBuffer.allocateDirect(capacity * RECORD_SIZE).order(ByteOrder.nativeOrder());
+            mask = capacity - 1;
+            hand = 0;
+        }
+
+        /** @return The offset of the record, or -1 if there is none. */
+        int find(long idHigh, long idLow, long hash) {
+            int index = (int) hash & mask;
+            while (true) {
+                int record = index * RECORD_SIZE;
+                long high = records.getLong(record + ID_HIGH);
+                if (high == 0 && records.getLong(record + ID_LOW) == 0) {
+                    return -1;
+                }
+                if (high == idHigh && records.getLong(record + ID_LOW) == idLow) {
+                    return record;
+                }
+                index = (index + 1) & mask;
+            }
+        }
+
+        int getOrCreate(long idHigh, long idLow, long hash, long now, long[] state) {
+            int record = find(idHigh, idLow, hash);
+            if (record >= 0) {
+                return record;
+            }
+            PackedGame.start(targetIndexes.getAsInt(), state);
+            record = insert(idHigh, idLow, hash, state, now, now);
+            SessionLog log = SessionTable.this.log;
+            if (log != null) {
+                log.created(index, idHigh, idLow, PackedGame.targetIndex(state), now);
+            }
+            return record;
+        }
+
+        /** Adds a record for a session known to have none. */
+        int insert(long idHigh, long idLow, long hash, long[] state, long createdAt, long lastAccessedAt) {
+            if (size + 1 > (mask + 1) / 4 * 3) {
+                if (mask + 1 < maxRecords) {
+                    resize((mask + 1) * 2);
+                } else {
+                    evictOne();
+                }
+            }
+            int index = (int) hash & mask;
+            while (!isEmpty(index * RECORD_SIZE)) {
+                index = (index + 1) & mask;
+            }
+            int record = index * RECORD_SIZE;
+            records.putLong(record + ID_HIGH, idHigh);
+            records.putLong(record + ID_LOW, idLow);
+            for (int i = 0; i < PackedGame.STATE_LONGS; i++) {
+                records.putLong(record + STATE + 8 * i, state[i]);
+            }
+            records.putLong(record + CREATED_AT, createdAt);
+            records.putLong(record + LAST_ACCESSED_AT, lastAccessedAt);
+            link(record);
+            size++;
+            return record;
+        }
+
+        private boolean isEmpty(int record) {
+            return records.getLong(record + ID_HIGH) == 0 && records.getLong(record + ID_LOW) == 0;
+        }
+
+        private void resize(int capacity) {
+            ByteBuffer old = records;
+            int oldCapacity = mask + 1;
+            allocate(capacity);
+            // The links are by index, the records are linked again where they land
+            Arrays.fill(wheel, 0);
+            for (int i = 0; i < oldCapacity; i++) {
+                int from = i * RECORD_SIZE;
+                long idHigh = old.getLong(from + ID_HIGH);
+                long idLow = old.getLong(from + ID_LOW);
+                if (idHigh == 0 && idLow == 0) {
+                    continue;
+                }
+                int index = (int) hash(idHigh, idLow) & mask;
+                while (!isEmpty(index * RECORD_SIZE)) {
+                    index = (index + 1) & mask;
+                }
+                copy(old, from, index * RECORD_SIZE);
+                link(index * RECORD_SIZE);
+            }
+        }
+
+        /** Evicts the least recently played of a few records after the hand. */
+        private void evictOne() {
+            int victim = -1;
+            long oldest = Long.MAX_VALUE;
+            int index = hand;
+            for (int seen = 0, visited = 0; seen < EVICTION_SAMPLES && visited <= mask; visited++) {
+                int record = index * RECORD_SIZE;
+                if (!isEmpty(record)) {
+                    seen++;
+                    long lastAccessedAt = records.getLong(record + LAST_ACCESSED_AT);
+                    if (lastAccessedAt < oldest) {
+                        oldest = lastAccessedAt;
+                        victim = record;
+                    }
+                }
+                index = (index + 1) & mask;
+            }
+            hand = index;
+            if (victim >= 0) {
+                delete(victim);
+                evicted.increment();
+            }
+        }
+
+        /**
+         * Processes the slots due by the given time: their games idle for
+         * longer than the timeout are removed, the other ones were played
+         * since they were linked and go to the slot of their new deadline.
+         */
+        void expire(long now) {
+            long nowTick = now / TICK_MILLIS;
+            if (nowTick - tick > wheel.length) {
+                // Every slot at most once
+                tick = nowTick - wheel.length;
+            }
+            for (; tick < nowTick; tick++) {
+                int slot = (int) (tick & (wheel.length - 1));
+                while (wheel[slot] != 0) {
+                    int record = (wheel[slot] - 1) * RECORD_SIZE;
+                    unlink(record);
+                    if (now - records.getLong(record + LAST_ACCESSED_AT) >= timeoutMillis) {
+                        delete(record);
+                        expired.increment();
+                    } else {
+                        link(record);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Links a record first in the slot of its deadline, a slot after the
+         * one being processed and less than a turn away.
+         */
+        private void link(int record) {
+            long deadline = (records.getLong(record + LAST_ACCESSED_AT) + timeoutMillis) / TICK_MILLIS;
+            deadline = Math.min(Math.max(deadline, tick + 1), tick + wheel.length - 1);
+            int slot = (int) (deadline & (wheel.length - 1));
+            int first = wheel[slot];
+            if (first != 0) {
+                records.putInt((first - 1) * RECORD_SIZE + WHEEL_PREVIOUS, record / RECORD_SIZE + 1);
+            }
+            records.putInt(record + WHEEL_PREVIOUS, ~slot);
+            records.putInt(record + WHEEL_NEXT, first);
+            wheel[slot] = record / RECORD_SIZE + 1;
+        }
+
+        /** Takes a record out of its slot, if it is in one. */
+        private void unlink(int record) {
+            int previous = records.getInt(record + WHEEL_PREVIOUS);
+            int next = records.getInt(record + WHEEL_NEXT);
+            if (previous > 0) {
+                records.putInt((previous - 1) * RECORD_SIZE + WHEEL_NEXT, next);
+            } else if (previous < 0) {
+                wheel[~previous] = next;
+            } else {
+                return;
+            }
+            if (next != 0) {
+                records.putInt((next - 1) * RECORD_SIZE + WHEEL_PREVIOUS, previous);
+            }
+            records.putLong(record + WHEEL_PREVIOUS, 0);
+        }
+
+        /** Points the neighbours of a record copied to a new index at it. */
+        private void relink(int record) {
+            int index = record / RECORD_SIZE + 1;
+            int previous = records.getInt(record + WHEEL_PREVIOUS);
+            int next = records.getInt(record + WHEEL_NEXT);
+            if (previous > 0) {
+                records.putInt((previous - 1) * RECORD_SIZE + WHEEL_NEXT, index);
+            } else if (previous < 0) {
+                wheel[~previous] = index;
+            }
+            if (next != 0) {
+                records.putInt((next - 1) * RECORD_SIZE + WHEEL_PREVIOUS, index);
+            }
+        }
+
+        /**
+         * Empties a record, moving back the following records of the probe
+         * sequence that could not be found anymore otherwise.
+         */
+        void delete(int record) {
+            SessionLog log = SessionTable.this.log;
+            if (log != null) {
+                log.ended(index, records.getLong(record + ID_HIGH), records.getLong(record + ID_LOW),
+                        records.getLong(record + CREATED_AT));
+            }
+            unlink(record);
+            int hole = record / RECORD_SIZE;
+            int index = hole;
+            while (true) {
+                index = (index + 1) & mask;
+                int next = index * RECORD_SIZE;
+                if (isEmpty(next)) {
+                    break;
+                }
+                int home = (int) hash(records.getLong(next + ID_HIGH), records.getLong(next + ID_LOW)) & mask;
+                // Move the record unless its home lies cyclically in (hole, index]
+                boolean stays = hole <= index ? hole < home && home <= index : hole < home || home <= index;
+                if (!stays) {
+                    copy(records, next, hole * RECORD_SIZE);
+                    relink(hole * RECORD_SIZE);
+                    hole = index;
+                }
+            }
+            int empty = hole * RECORD_SIZE;
+            for (int offset = 0; offset < RECORD_SIZE; offset += 8) {
+                records.putLong(empty + offset, 0);
+            }
+            size--;
+        }
+
+        private void copy(ByteBuffer from, int fromRecord, int toRecord) {
+            for (int offset = 0; offset < RECORD_SIZE; offset += 8) {
+                records.putLong(toRecord + offset, from.getLong(fromRecord + offset));
+            }
+        }
+    }
+}
@@ -0,0 +1,207 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The StaticFile class is a file served as is, such as the favicon or the
+ * logo, with its validators already encoded: a strong ETag computed from the
+ * content and the Last-Modified date. The content is memory-mapped, so the
+ * socket writes go from the page cache to the kernel without any copy through
+ * the Java heap. Files are cached by name and mapped again only when their
+ * modification time changes, which is checked at most once per second; a
+ * served file should therefore be replaced by a rename rather than rewritten in
+ * place.
+ */
+public class StaticFile {
+
+    /** Pre-encoded Cache-Control header line for files referenced by version. */
+    public static final byte[] CACHE_IMMUTABLE = ascii("Cache-Control: public, max-age=31536000, immutable\r\n");
+    /**
+     * Pre-encoded Cache-Control header line for files referenced without their
+     * version, revalidated with the ETag once it expires.
+     */
+    public static final byte[] CACHE_REVALIDATE = ascii("Cache-Control: public, max-age=600\r\n");
+
+    private static final long RELOAD_CHECK_INTERVAL_MILLIS = 1000;
+    private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter
+            .ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+    private static final ConcurrentHashMap<String, StaticFile> CACHE = new ConcurrentHashMap<>();
+
+    private final FileTime modified;
+    private final ByteBuffer bytes;
+    private final String version;
+    private final byte[] versionQuery;
+    private final byte[] etag;
+    private final byte[] lastModified;
+    private final byte[] contentTypeHeader;
+    private final byte[] etagHeader;
+    private final byte[] lastModifiedHeader;
+    private volatile long checkedAt;
+
+    private StaticFile(Path path, FileTime modified, MappedByteBuffer content, long checkedAt) {
+        this.modified = modified;
+        this.bytes = content;
+        this.version = digest(content.duplicate());
+        this.versionQuery = ascii("v=" + version);
+        this.etag = ascii("\"" + version + "\"");
+        this.lastModified = ascii(HTTP_DATE.format(modified.toInstant().atOffset(ZoneOffset.UTC)));
+        this.contentTypeHeader = ascii("Content-Type: " + mimeType(path.getFileName().toString()) + "\r\n");
+        this.etagHeader = ascii("ETag: \"" + version + "\"\r\n");
+        this.lastModifiedHeader = ascii("Last-Modified: "
+                + new String(lastModified, StandardCharsets.ISO_8859_1) + "\r\n");
+        this.checkedAt = checkedAt;
+    }
+
+    /**
+     * Returns the cached copy of a file, reading it again if it was modified.
+     * The same instance is returned as long as the file does not change.
+     *
+     * @param fileName The path of the file.
+     * @return The file, or null if it cannot be read.
+     */
+    public static StaticFile get(String fileName) {
+        StaticFile file = CACHE.get(fileName);
+        long now = System.currentTimeMillis();
+        if (file != null && now - file.checkedAt < RELOAD_CHECK_INTERVAL_MILLIS) {
+            return file;
+        }
+        synchronized (CACHE) {
+            file = CACHE.get(fileName);
+            if (file != null && now - file.checkedAt < RELOAD_CHECK_INTERVAL_MILLIS) {
+                return file;
+            }
+            Path path = Paths.get(fileName);
+            try {
+                FileTime modified = Files.getLastModifiedTime(path);
+                if (file != null && modified.equals(file.modified)) {
+                    file.checkedAt = now;
+                    return file;
+                }
+                file = new StaticFile(path, modified, map(path), now);
+                CACHE.put(fileName, file);
+                return file;
+            } catch (Exception e) {
+                CACHE.remove(fileName);
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Tells whether the client copy is still valid according to its
+     * If-None-Match or, when absent, its If-Modified-Since header. Like most
+     * servers, If-Modified-Since only matches the exact date that was sent.
+     *
+     * @param request The parsed request.
+     * @return true if a 304 Not Modified can be sent.
+     */
+    public boolean isNotModified(HttpRequest request) {
+        if (request.hasIfNoneMatch()) {
+            return request.ifNoneMatch(etag);
+        }
+        return request.ifModifiedSince(lastModified);
+    }
+
+    /**
+     * Tells whether the request names this content by its version, as the
+     * {@code ?v=} URLs of the page do. Only such a response may be cached as
+     * immutable: the URL changes with the content.
+     *
+     * @param request The parsed request.
+     * @return true if the query is the current version of the file.
+     */
+    public boolean isVersioned(HttpRequest request) {
+        return request.queryIs(versionQuery);
+    }
+
+    /**
+     * Returns the Cache-Control header line of a response to the request,
+     * {@link #CACHE_IMMUTABLE} if it names this version, {@link #CACHE_REVALIDATE}
+     * otherwise.
+     *
+     * @param request The parsed request.
+     * @return The pre-encoded header line.
+     */
+    public byte[] getCacheControlHeader(HttpRequest request) {
+        return isVersioned(request) ? CACHE_IMMUTABLE : CACHE_REVALIDATE;
+    }
+
+    /** @return The mapped file content, shared: duplicate it before reading. */
+    public ByteBuffer getBytes() {
+        return bytes;
+    }
+
+    /** @return A short content hash, used in the ETag and in versioned URLs. */
+    public String getVersion() {
+        return version;
+    }
+
+    /** @return The pre-encoded Content-Type header line. */
+    public byte[] getContentTypeHeader() {
+        return contentTypeHeader;
+    }
+
+    /** @return The pre-encoded ETag header line. */
+    public byte[] getEtagHeader() {
+        return etagHeader;
+    }
+
+    /** @return The pre-encoded Last-Modified header line. */
+    public byte[] getLastModifiedHeader() {
+        return lastModifiedHeader;
+    }
+
+    private static String mimeType(String fileName) {
+        if (fileName.endsWith(".png")) {
+            return "image/png";
+        } else if (fileName.endsWith(".ico")) {
+            return "image/x-icon";
+        } else if (fileName.endsWith(".css")) {
+            return "text/css";
+        } else if (fileName.endsWith(".js")) {
+            return "text/javascript";
+        } else if (fileName.endsWith(".html")) {
+            return "text/html";
+        }
+        return "application/octet-stream";
+    }
+
+    private static MappedByteBuffer map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // The mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    private static String digest(ByteBuffer content) {
+        try {
+            MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+            messageDigest.update(content);
+            byte[] hash = messageDigest.digest();
+            StringBuilder hex = new StringBuilder();
+            for (int i = 0; i < 12; i++) {
+                hex.append(Character.forDigit((hash[i] >> 4) & 0xf, 16)).append(Character.forDigit(hash[i] & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,60 @@
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+
+/**
+ * The TargetPicker class picks the word to find in each new game, as an index
+ * of the {@link WordleDictionary} array, in constant time.
+ * <p>
+ * Unseeded, it draws from the generator of the calling thread, so games started
+ * at once on different threads never contend. Seeded, the n-th game started
+ * gets the n-th value of a splitmix64 sequence of the seed, whatever the thread
+ * starting it, so a run replaying the same games picks the same words; the
+ * sequence position is a single counter moved with one atomic add.
+ */
+public class TargetPicker implements IntSupplier {
+
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    private final int size;
+    private final AtomicLong sequence;
+
+    /**
+     * Creates a picker drawing from the thread generators.
+     *
+     * @param size The number of words to pick from.
+     */
+    public TargetPicker(int size) {
+        this.size = size;
+        this.sequence = null;
+    }
+
+    /**
+     * Creates a picker giving the same words in the same order for the same
+     * seed.
+     *
+     * @param size The number of words to pick from.
+     * @param seed The seed.
+     */
+    public TargetPicker(int size, long seed) {
+        this.size = size;
+        this.sequence = new AtomicLong(seed);
+    }
+
+    /** @return The index of the word to find, from 0 to the size excluded. */
+    @Override
+    public int getAsInt() {
+        if (sequence == null) {
+            return ThreadLocalRandom.current().nextInt(size);
+        }
+        long value = mix(sequence.addAndGet(GOLDEN_GAMMA));
+        // The high 32 bits scaled to the size, without a division
+        return (int) (((value >>> 32) * size) >>> 32);
+    }
+
+    private static long mix(long value) {
+        value = (value ^ (value >>> 30)) * 0xBF58476D1CE4E5B9L;
+        value = (value ^ (value >>> 27)) * 0x94D049BB133111EBL;
+        return value ^ (value >>> 31);
+    }
+}
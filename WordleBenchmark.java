@@ -0,0 +1,1333 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The WordleBenchmark class holds the measurements used to compare server
+ * modes and implementations. It has no dependencies so it runs next to the
+ * server with a plain {@code java WordleBenchmark <name> ...}.
+ *
+ * <ul>
+ * <li>{@code load <host> <port> <clients> <seconds>}: opens the given number of
+ * concurrent connections from a single selector thread, sends guesses in a loop
+ * with the session cookie the server set on each connection, and prints the
+ * throughput and the p50/p99 latency.</li>
+ * <li>{@code parse [iterations]}: parses the same guess request with the former
+ * BufferedReader/split/HashMap code and with {@link HttpRequest}, and prints
+ * the time and the bytes allocated per request for each.</li>
+ * <li>{@code files <file> [megabytes]}: sends a file over a loopback socket
+ * from a heap copy, from a memory mapping as {@link StaticFile} does, and with
+ * FileChannel.transferTo, and prints the throughput of each.</li>
+ * <li>{@code sessions <count> [offheap|legacy]}: fills a {@link SessionTable},
+ * or the two HashMaps the server used before, with the given number of games of
+ * three guesses each, and prints the heap and the direct memory retained per
+ * game, and how long a full collection takes with these games live. Run it
+ * with a heap large enough for the count, such as {@code -Xmx4g} for 10 million
+ * legacy games.</li>
+ * <li>{@code cookies [iterations]}: compares the cost of finding a game in a
+ * {@link SessionTable} of a million games with the cost of opening a game
+ * sealed by {@link GameCookieSealer}, and of opening and sealing it again as a
+ * guess does in the stateless mode.</li>
+ * <li>{@code wal <count> [always|never|<millis>] [threads]}: plays the given
+ * number of games of three guesses through a {@link SessionLog} in a temporary
+ * directory, each guess waiting for the log as the server does, and prints the
+ * guesses per second, the records per sync and how long the threads were
+ * blocked on a lock; then recovers the games into a new table and prints how
+ * long it takes.</li>
+ * <li>{@code ids [threads] [seconds]}: draws session IDs from the given number
+ * of threads, with UUID.randomUUID as the server did before and with
+ * {@link SessionIdGenerator}, each ending in the Set-Cookie line, and prints
+ * the IDs per second of each.</li>
+ * <li>{@code dictionary [iterations]}: tests whether the guess of a request is
+ * a word, with WordleWordSet.WORD_SET on a String made from the request bytes
+ * and with the {@link WordleDictionary} bitset on the bytes themselves, and
+ * prints the time and the bytes allocated per test for each.</li>
+ * <li>{@code startup [file|set]}: loads the words as the first request of a
+ * server does, with {@link WordleDictionary} reading its file or with the
+ * static initializer of WordleWordSet, and prints how long the classes took to
+ * load and initialize and the heap they retain. Each run measures one of them
+ * in a fresh JVM, as a class is only initialized once.</li>
+ * <li>{@code score [iterations]}: scores guesses against words to find with
+ * the HashMap of letter counts the server used before and with
+ * {@link WordleScorer} on packed words, checks that both give the same
+ * patterns, and prints the time and the bytes allocated per score for each.</li>
+ * <li>{@code matrix [file] [iterations]}: checks a {@link FeedbackMatrix} file
+ * against {@link WordleScorer} on random pairs, then prints the time per score
+ * read from the mapped file, for random pairs and for whole rows, and computed
+ * by WordleScorer for the same pairs. The file is written beforehand with
+ * {@code java FeedbackMatrix}.</li>
+ * <li>{@code batch [guesses]}: scores the given number of guesses against the
+ * whole dictionary, calling {@link WordleScorer#score} for each word and with
+ * {@link WordleScorer#scoreAll}, checks that both give the same scores, and
+ * prints the scores per second of each. Run it with {@code --add-modules
+ * jdk.incubator.vector} and the compiled VectorScorer for the Vector API,
+ * without them for the scalar fallback.</li>
+ * <li>{@code page [iterations]}: writes the page answering a guess in each
+ * coding with {@link HtmlContainer#writeGuessPage}, checks that it inflates to
+ * the page of {@link HtmlContainer#getGuessPageBytes}, then prints the time and
+ * the compressed size per page when the whole page is compressed at the
+ * fastest level, as the chunked answer did before, and when only the guess
+ * section is. Run it where logo.png is.</li>
+ * <li>{@code verify}: checks, rather than measures, the code the other
+ * benchmarks rely on: the frames of the {@link SessionLog} and the recovery
+ * from a torn or corrupt frame, the removal from a {@link SessionTable} with
+ * its timing wheel, the session tokens of {@link SessionIdGenerator}, the
+ * parsing of pipelined requests by {@link HttpRequest}, and the owners of a
+ * {@link HashRing}. It prints each check and exits with status 1 at the first
+ * that fails, so it can gate a build. Run it where words.bin is.</li>
+ * </ul>
+ */
+public class WordleBenchmark {
+
+    /**
+     * Runs the benchmark named by the first argument.
+     *
+     * @param args The benchmark name followed by its arguments.
+     * @throws Exception If the benchmark fails.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.out.println("Usage: java WordleBenchmark load <host> <port> <clients> <seconds>");
+            System.out.println("       java WordleBenchmark parse [iterations]");
+            System.out.println("       java WordleBenchmark files <file> [megabytes]");
+            System.out.println("       java WordleBenchmark sessions <count> [offheap|legacy]");
+            System.out.println("       java WordleBenchmark cookies [iterations]");
+            System.out.println("       java WordleBenchmark wal <count> [always|never|<millis>] [threads]");
+            System.out.println("       java WordleBenchmark ids [threads] [seconds]");
+            System.out.println("       java WordleBenchmark dictionary [iterations]");
+            System.out.println("       java WordleBenchmark startup [file|set]");
+            System.out.println("       java WordleBenchmark score [iterations]");
+            System.out.println("       java WordleBenchmark matrix [file] [iterations]");
+            System.out.println("       java WordleBenchmark batch [guesses]");
+            System.out.println("       java WordleBenchmark page [iterations]");
+            System.out.println("       java WordleBenchmark verify");
+            return;
+        }
+        switch (args[0]) {
+            case "load":
+                load(args[1], Integer.parseInt(args[2]), Integer.parseInt(args[3]), Integer.parseInt(args[4]));
+                break;
+            case "parse":
+                parse(args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000);
+                break;
+            case "files":
+                files(args[1], args.length > 2 ? Integer.parseInt(args[2]) : 2048);
+                break;
+            case "sessions":
+                sessions(Integer.parseInt(args[1]), args.length > 2 ? args[2] : "offheap");
+                break;
+            case "cookies":
+                cookies(args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000);
+                break;
+            case "wal":
+                wal(Integer.parseInt(args[1]), args.length > 2 ? args[2] : "always",
+                        args.length > 3 ? Integer.parseInt(args[3]) : 32);
+                break;
+            case "ids":
+                ids(args.length > 1 ? Integer.parseInt(args[1]) : 32, args.length > 2 ? Integer.parseInt(args[2]) : 3);
+                break;
+            case "dictionary":
+                dictionary(args.length > 1 ? Integer.parseInt(args[1]) : 10_000_000);
+                break;
+            case "startup":
+                startup(args.length > 1 ? args[1] : "file");
+                break;
+            case "score":
+                score(args.length > 1 ? Integer.parseInt(args[1]) : 10_000_000);
+                break;
+            case "matrix":
+                matrix(args.length > 1 ? args[1] : FeedbackMatrix.FILE,
+                        args.length > 2 ? Integer.parseInt(args[2]) : 10_000_000);
+                break;
+            case "batch":
+                batch(args.length > 1 ? Integer.parseInt(args[1]) : 2000);
+                break;
+            case "page":
+                page(args.length > 1 ? Integer.parseInt(args[1]) : 100_000);
+                break;
+            case "verify":
+                verify();
+                break;
+            default:
+                System.out.println("Unknown benchmark : " + args[0]);
+        }
+    }
+
+    /**
+     * Drives the server with many concurrent clients. Each client sends a guess,
+     * reads the whole response and sends the next guess, reconnecting whenever
+     * the server closes the connection.
+     */
+    private static void load(String host, int port, int clients, int seconds) throws IOException {
+        InetSocketAddress address = new InetSocketAddress(host, port);
+        LatencyRecorder latencies = new LatencyRecorder();
+        long errors = 0;
+        try (Selector selector = Selector.open()) {
+            for (int i = 0; i < clients; i++) {
+                new LoadClient(address).connect(selector);
+            }
+            long end = System.nanoTime() + seconds * 1_000_000_000L;
+            long start = System.nanoTime();
+            while (System.nanoTime() < end) {
+                selector.select(100);
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    LoadClient client = (LoadClient) key.attachment();
+                    try {
+                        client.onReady(key, selector, latencies);
+                    } catch (IOException e) {
+                        errors++;
+                        key.cancel();
+                        key.channel().close();
+                        client.connect(selector);
+                    }
+                }
+            }
+            double elapsed = (System.nanoTime() - start) / 1e9;
+            System.out.printf("clients=%d requests=%d errors=%d throughput=%.0f req/s p50=%.2fms p99=%.2fms%n",
+                    clients, latencies.count(), errors, latencies.count() / elapsed,
+                    latencies.percentile(0.50) / 1e6, latencies.percentile(0.99) / 1e6);
+            for (SelectionKey key : selector.keys()) {
+                key.channel().close();
+            }
+        }
+    }
+
+    /**
+     * Compares the allocation and time per request of the former line based
+     * parsing and of the in-place {@link HttpRequest} parser.
+     */
+    private static void parse(int iterations) throws IOException {
+        byte[] bytes = ("POST /play.html HTTP/1.1\r\n"
+                + "Host: localhost:8021\r\n"
+                + "User-Agent: Mozilla/5.0 (X11; Linux x86_64; rv:121.0) Gecko/20100101 Firefox/121.0\r\n"
+                + "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8\r\n"
+                + "Accept-Language: en-US,en;q=0.5\r\n"
+                + "Accept-Encoding: gzip, deflate, br\r\n"
+                + "Content-Type: application/x-www-form-urlencoded\r\n"
+                + "Content-Length: 11\r\n"
+                + "Connection: keep-alive\r\n"
+                + "Cookie: theme=dark; SESSIONID=0f8b9c2e-3a41-4d6e-9b7a-5c2d1e0f4a3b\r\n\r\n"
+                + "guess=crane").getBytes(StandardCharsets.ISO_8859_1);
+        ByteBuffer buffer = ByteBuffer.allocate(HttpRequest.INITIAL_BUFFER_SIZE);
+        buffer.put(bytes);
+        HttpRequest request = new HttpRequest();
+        for (int round = 0; round < 2; round++) {
+            // The first round only warms up the JIT
+            long sink = 0;
+            long allocated = allocatedBytes();
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                sink += legacyParse(bytes);
+            }
+            long legacyTime = System.nanoTime() - start;
+            long legacyAllocated = allocatedBytes() - allocated;
+            allocated = allocatedBytes();
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                sink += request.parse(buffer, 0, buffer.position());
+                sink += request.methodIs("POST") ? 1 : 0;
+                sink += request.isKeepAlive() ? 1 : 0;
+            }
+            long parserTime = System.nanoTime() - start;
+            long parserAllocated = allocatedBytes() - allocated;
+            if (round == 1) {
+                System.out.printf("legacy: %.0f ns/request, %d bytes/request%n",
+                        (double) legacyTime / iterations, legacyAllocated / iterations);
+                System.out.printf("parser: %.0f ns/request, %d bytes/request (%d)%n",
+                        (double) parserTime / iterations, parserAllocated / iterations, sink % 2);
+            }
+        }
+    }
+
+    /**
+     * The request parsing WordleServer.handleRequest used to do, kept here as the
+     * baseline.
+     */
+    private static int legacyParse(byte[] bytes) throws IOException {
+        java.io.BufferedReader reader = new java.io.BufferedReader(
+                new java.io.InputStreamReader(new java.io.ByteArrayInputStream(bytes)));
+        char[] buffer = new char[1024];
+        String request = reader.readLine();
+        java.util.Map<String, String> headers = new java.util.HashMap<>();
+        String line;
+        while ((line = reader.readLine()) != null && !line.isEmpty()) {
+            String[] headerParts = line.split(": ");
+            if (headerParts.length == 2) {
+                headers.put(headerParts[0], headerParts[1]);
+            }
+        }
+        int bufferSize = 0;
+        if (headers.containsKey("Content-Length")) {
+            bufferSize = Integer.parseInt(headers.get("Content-Length"));
+            buffer = new char[bufferSize];
+        }
+        int i = 0;
+        while (i < bufferSize) {
+            i += reader.read(buffer, i, bufferSize - i);
+        }
+        String body = new String(buffer);
+        String[] requestParts = request.split(" ");
+        return requestParts[0].length() + body.length();
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Compares the ways of sending a static file. The heap copy is what the
+     * server did before, the mapping and transferTo never copy the bytes
+     * through the Java heap.
+     */
+    private static void files(String fileName, int megabytes) throws Exception {
+        java.nio.file.Path path = java.nio.file.Paths.get(fileName);
+        long total = megabytes * 1024L * 1024L;
+        try (java.nio.channels.ServerSocketChannel server = java.nio.channels.ServerSocketChannel.open();
+                java.nio.channels.FileChannel file = java.nio.channels.FileChannel.open(path)) {
+            server.bind(new InetSocketAddress("localhost", 0));
+            byte[] heap = java.nio.file.Files.readAllBytes(path);
+            ByteBuffer mapped = file.map(java.nio.channels.FileChannel.MapMode.READ_ONLY, 0, file.size());
+            for (int round = 0; round < 2; round++) {
+                // The first round only warms up the JIT and the page cache
+                for (String mode : new String[] { "heap", "mapped", "transferTo" }) {
+                    try (SocketChannel client = SocketChannel.open(server.getLocalAddress());
+                            SocketChannel sink = server.accept()) {
+                        Thread reader = new Thread(() -> drain(sink));
+                        reader.start();
+                        long start = System.nanoTime();
+                        long sent = 0;
+                        while (sent < total) {
+                            if (mode.equals("heap")) {
+                                // A fresh heap copy per response, as getBytes() used to make
+                                ByteBuffer buffer = ByteBuffer.wrap(heap.clone());
+                                while (buffer.hasRemaining()) {
+                                    sent += client.write(buffer);
+                                }
+                            } else if (mode.equals("mapped")) {
+                                ByteBuffer buffer = mapped.duplicate();
+                                while (buffer.hasRemaining()) {
+                                    sent += client.write(buffer);
+                                }
+                            } else {
+                                long position = 0;
+                                while (position < file.size()) {
+                                    position += file.transferTo(position, file.size() - position, client);
+                                }
+                                sent += position;
+                            }
+                        }
+                        client.shutdownOutput();
+                        reader.join();
+                        double seconds = (System.nanoTime() - start) / 1e9;
+                        if (round == 1) {
+                            System.out.printf("%-10s %8.0f MB/s%n", mode, sent / seconds / (1024 * 1024));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static void drain(SocketChannel channel) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(256 * 1024);
+        try {
+            while (channel.read(buffer) != -1) {
+                buffer.clear();
+            }
+        } catch (IOException e) {
+            System.out.println("Problem : " + e.getMessage());
+        }
+    }
+
+    /**
+     * Measures the memory retained by live games, session cookies and map
+     * entries included, as the difference of the used heap after a full
+     * collection, plus the direct memory of the off-heap table.
+     */
+    private static void sessions(int count, String mode) {
+        String[] guesses = { "CRANE", "SLATE", "PIOUS" };
+        long before = usedHeap();
+        Object store;
+        long direct = 0;
+        if (mode.equals("legacy")) {
+            // The maps WordleServer used before the session store
+            java.util.Map<String, String> sessionMap = new java.util.HashMap<>();
+            java.util.Map<String, java.util.List<String>> attemptsMap = new java.util.HashMap<>();
+            for (int i = 0; i < count; i++) {
+                String id = java.util.UUID.randomUUID().toString();
+                attemptsMap.put(id, new java.util.ArrayList<>());
+                sessionMap.put(id, WordleDictionary.word(i % WordleDictionary.size()).toLowerCase().toUpperCase());
+                for (String guess : guesses) {
+                    attemptsMap.get(id).add(new String(guess));
+                }
+            }
+            store = new Object[] { sessionMap, attemptsMap };
+        } else {
+            SessionTable table = new SessionTable(() -> 0, 1800000, count);
+            long[] state = new long[PackedGame.STATE_LONGS];
+            java.util.Random random = new java.util.Random(42);
+            for (int i = 0; i < count; i++) {
+                long idHigh = random.nextLong() | 1;
+                long idLow = random.nextLong();
+                for (String guess : guesses) {
+                    table.addAttempt(idHigh, idLow, WordleDictionary.encode(guess), state);
+                }
+            }
+            store = table;
+            direct = table.getReservedBytes();
+        }
+        long retained = usedHeap() - before;
+        long start = System.nanoTime();
+        System.gc();
+        double gcMillis = (System.nanoTime() - start) / 1e6;
+        System.out.printf("%s: %d games, heap %d MB (%.0f bytes/game), direct %d MB (%.0f bytes/game),"
+                + " full GC %.0f ms (%s)%n", mode, count, retained / (1024 * 1024), (double) retained / count,
+                direct / (1024 * 1024), (double) direct / count, gcMillis, store.getClass().getSimpleName());
+    }
+
+    /**
+     * Compares looking a game up in the session table with validating a sealed
+     * cookie.
+     */
+    private static void cookies(int iterations) {
+        int games = 1_000_000;
+        SessionTable table = new SessionTable(() -> 0, 1800000, games);
+        long[] state = new long[PackedGame.STATE_LONGS];
+        long[] ids = new long[2 * games];
+        java.util.Random random = new java.util.Random(42);
+        for (int i = 0; i < games; i++) {
+            ids[2 * i] = random.nextLong() | 1;
+            ids[2 * i + 1] = random.nextLong();
+            table.addAttempt(ids[2 * i], ids[2 * i + 1], 0, state);
+        }
+        GameCookieSealer sealer = new GameCookieSealer(1800000);
+        String[] cookies = new String[1024];
+        for (int i = 0; i < cookies.length; i++) {
+            PackedGame.start(i, state);
+            PackedGame.addAttempt(state, i);
+            cookies[i] = sealer.seal(state);
+        }
+        for (int round = 0; round < 2; round++) {
+            // The first round only warms up the JIT
+            long sink = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                int game = random.nextInt(games);
+                sink += table.addAttempt(ids[2 * game], ids[2 * game + 1], 0, state);
+            }
+            long tableTime = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                sink += sealer.open(cookies[i & (cookies.length - 1)], state) ? 1 : 0;
+            }
+            long openTime = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                sealer.open(cookies[i & (cookies.length - 1)], state);
+                sink += sealer.seal(state).length();
+            }
+            long guessTime = System.nanoTime() - start;
+            if (round == 1) {
+                System.out.printf("table lookup:       %.0f ns/guess (%d)%n", (double) tableTime / iterations,
+                        sink % 2);
+                System.out.printf("cookie open:        %.0f ns/guess%n", (double) openTime / iterations);
+                System.out.printf("cookie open + seal: %.0f ns/guess%n", (double) guessTime / iterations);
+            }
+        }
+    }
+
+    /**
+     * Runs every check in turn and exits with status 1 at the first failure.
+     * Each check runs on a daemon thread, so one that never ends, as a broken
+     * wheel link can make it, fails once its time is up.
+     */
+    private static void verify() throws InterruptedException {
+        String[] names = { "session log", "session table", "session tokens", "request parser", "hash ring" };
+        for (int i = 0; i < names.length; i++) {
+            int check = i;
+            String[] failure = new String[1];
+            Thread thread = new Thread(() -> {
+                try {
+                    switch (check) {
+                        case 0:
+                            verifyLog();
+                            break;
+                        case 1:
+                            verifyTable();
+                            break;
+                        case 2:
+                            verifyTokens();
+                            break;
+                        case 3:
+                            verifyParser();
+                            break;
+                        default:
+                            verifyRing();
+                    }
+                } catch (IOException | RuntimeException e) {
+                    failure[0] = String.valueOf(e.getMessage());
+                }
+            }, "wordle-verify");
+            thread.setDaemon(true);
+            thread.start();
+            thread.join(60000);
+            if (thread.isAlive()) {
+                failure[0] = "not done after 60 s";
+            }
+            if (failure[0] != null) {
+                System.out.println("FAILED " + names[i] + " : " + failure[0]);
+                System.exit(1);
+            }
+            System.out.println("ok     " + names[i]);
+        }
+    }
+
+    /** Fails the current check unless the condition holds. */
+    private static void expect(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException(message);
+        }
+    }
+
+    /**
+     * Plays games through a log, recovers them after appending a frame torn by
+     * a crash, plays on, then recovers them again after appending a frame with
+     * a wrong checksum. Both bad frames hold a valid record ending a live game,
+     * which must not be replayed.
+     */
+    private static void verifyLog() throws IOException {
+        Path directory = Files.createTempDirectory("wordle-verify");
+        try {
+            int games = 3000;
+            long[] ids = new long[2 * games];
+            // The guesses of each game, 0 once it ended
+            int[] counts = new int[games];
+            long[] state = new long[PackedGame.STATE_LONGS];
+            Random random = new Random(11);
+            SessionTable table = new SessionTable(() -> 42, 1800000, 100000);
+            SessionLog log = new SessionLog(table, directory.toString(), "always");
+            for (int i = 0; i < games; i++) {
+                ids[2 * i] = random.nextLong() | 1;
+                ids[2 * i + 1] = random.nextLong();
+                counts[i] = 1 + i % 3;
+                for (int guess = 0; guess < counts[i]; guess++) {
+                    table.addAttempt(ids[2 * i], ids[2 * i + 1], code(i, guess), state);
+                }
+                if (i % 5 == 0) {
+                    expect(table.remove(ids[2 * i], ids[2 * i + 1]), "game " + i + " not found to end");
+                    counts[i] = 0;
+                }
+            }
+            table.awaitDurable();
+            log.close();
+            expect(log.getRecordCount() > games, "only " + log.getRecordCount() + " records logged");
+            // The first record counts the size of two, the frame stops in the second
+            appendFrame(directory, ids, 1, 80, 40, true);
+
+            table = new SessionTable(() -> 0, 1800000, 100000);
+            log = new SessionLog(table, directory.toString(), "always");
+            expectGames(table, ids, counts, state);
+            table.awaitDurable();
+            log.close();
+            appendFrame(directory, ids, 2, 40, 40, false);
+
+            table = new SessionTable(() -> 0, 1800000, 100000);
+            log = new SessionLog(table, directory.toString(), "never");
+            expectGames(table, ids, counts, state);
+            log.close();
+        } finally {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+                for (Path file : files) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(directory);
+        }
+    }
+
+    private static int code(int game, int guess) {
+        return (game * 31 + guess) & ((1 << WordleDictionary.CODE_BITS) - 1);
+    }
+
+    /**
+     * Checks that every game recovered holds its guesses, or is gone if it
+     * ended, then plays one more guess in each live game.
+     */
+    private static void expectGames(SessionTable table, long[] ids, int[] counts, long[] state) {
+        long live = 0;
+        for (int i = 0; i < counts.length; i++) {
+            live += counts[i] > 0 ? 1 : 0;
+        }
+        expect(table.getLiveCount() == live, table.getLiveCount() + " games recovered instead of " + live);
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] == 0) {
+                expect(!table.remove(ids[2 * i], ids[2 * i + 1]), "ended game " + i + " recovered");
+                continue;
+            }
+            int count = table.addAttempt(ids[2 * i], ids[2 * i + 1], code(i, counts[i]), state);
+            expect(count == counts[i] + 1, "game " + i + " recovered with " + (count - 1) + " guesses instead of "
+                    + counts[i]);
+            expect(PackedGame.targetIndex(state) == 42, "game " + i + " recovered with another word");
+            for (int guess = 0; guess < count; guess++) {
+                expect(PackedGame.attempt(state, guess) == code(i, guess), "game " + i + " guess " + guess
+                        + " recovered wrong");
+            }
+            counts[i] = count;
+        }
+    }
+
+    /**
+     * Appends to the latest log a frame ending a live game, torn after the
+     * given number of record bytes or with a wrong checksum.
+     */
+    private static void appendFrame(Path directory, long[] ids, int game, int length, int written, boolean torn)
+            throws IOException {
+        Path latest = null;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "wal-*.log")) {
+            for (Path file : files) {
+                if (latest == null || file.getFileName().toString().compareTo(latest.getFileName().toString()) > 0) {
+                    latest = file;
+                }
+            }
+        }
+        expect(latest != null, "no log written");
+        ByteBuffer record = ByteBuffer.allocate(40);
+        record.put((byte) 3).put((byte) 0).putShort((short) 0).putInt(0).putLong(ids[2 * game])
+                .putLong(ids[2 * game + 1]).putLong(Long.MAX_VALUE).putLong(0).flip();
+        java.util.zip.CRC32 crc = new java.util.zip.CRC32();
+        crc.update(record.duplicate());
+        ByteBuffer frame = ByteBuffer.allocate(8 + written);
+        frame.putInt(length).putInt((int) crc.getValue() + (torn ? 0 : 1)).put(record).flip();
+        try (FileChannel out = FileChannel.open(latest, StandardOpenOption.APPEND)) {
+            while (frame.hasRemaining()) {
+                out.write(frame);
+            }
+        }
+    }
+
+    /**
+     * Removes every other game of a table loaded enough for long probe
+     * sequences, so most removals move records back, then checks that the
+     * other games are still found and that the timing wheel, whose links
+     * follow the moved records, expires each of them once.
+     */
+    private static void verifyTable() {
+        int games = 40000;
+        // 1024 records per segment, about 60% full
+        SessionTable table = new SessionTable(() -> 7, 60000, 1000);
+        long[] ids = new long[2 * games];
+        long[] state = new long[PackedGame.STATE_LONGS];
+        Random random = new Random(13);
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < games; i++) {
+            ids[2 * i] = random.nextLong() | 1;
+            ids[2 * i + 1] = random.nextLong();
+            table.addAttempt(ids[2 * i], ids[2 * i + 1], i, state);
+        }
+        expect(table.getEvictedCount() == 0, table.getEvictedCount() + " games evicted");
+        for (int i = 1; i < games; i += 2) {
+            expect(table.remove(ids[2 * i], ids[2 * i + 1]), "game " + i + " not found to remove");
+            expect(!table.remove(ids[2 * i], ids[2 * i + 1]), "game " + i + " removed twice");
+        }
+        expect(table.getLiveCount() == games / 2, table.getLiveCount() + " games left instead of " + games / 2);
+        for (int i = 0; i < games; i += 2) {
+            expect(table.addAttempt(ids[2 * i], ids[2 * i + 1], i + 1, state) == 2, "game " + i
+                    + " lost after the removals");
+        }
+        long end = System.currentTimeMillis();
+        table.expire(start + 30000);
+        expect(table.getLiveCount() == games / 2, "games expired before their deadline");
+        table.expire(end + 60000 + 2000);
+        expect(table.getLiveCount() == 0, table.getLiveCount() + " games left past their deadline");
+        expect(table.getExpiredCount() == games / 2, table.getExpiredCount() + " games expired instead of "
+                + games / 2);
+    }
+
+    /**
+     * Checks the token of known IDs and that random IDs survive a round trip,
+     * then that malformed tokens are refused and that UUID cookies still
+     * parse.
+     */
+    private static void verifyTokens() {
+        long[] id = new long[2];
+        expect(SessionIdGenerator.token(-1, -1).equals("_____________________w"), "wrong token of all ones");
+        expect(SessionIdGenerator.token(0, 1).equals("AAAAAAAAAAAAAAAAAAAAAQ"), "wrong token of 1");
+        expect(SessionIdGenerator.token(Long.MIN_VALUE, 0).equals("gAAAAAAAAAAAAAAAAAAAAA"),
+                "wrong token of the high bit");
+        Random random = new Random(17);
+        for (int i = 0; i < 100000; i++) {
+            long high = random.nextLong() | 1;
+            long low = random.nextLong();
+            String token = SessionIdGenerator.token(high, low);
+            expect(token.length() == SessionIdGenerator.TOKEN_LENGTH, "token " + token + " of a wrong length");
+            expect(SessionIdGenerator.parse(token, id) && id[0] == high && id[1] == low, "token " + token
+                    + " parsed wrong");
+        }
+        String line = new String(SessionIdGenerator.setCookieLine(0, 1), StandardCharsets.US_ASCII);
+        expect(line.startsWith("Set-Cookie: SESSIONID=AAAAAAAAAAAAAAAAAAAAAQ;") && line.endsWith("\r\n"),
+                "wrong Set-Cookie line " + line);
+        // A last character with its low bits set, one out of the alphabet,
+        // a token of a wrong length, the ID 0
+        for (String token : new String[] { "AAAAAAAAAAAAAAAAAAAAAR", "AAAAAAAAAAAAAAAAAAAA+Q",
+                "AAAAAAAAAAAAAAAAAAAAA", "AAAAAAAAAAAAAAAAAAAAAA", null }) {
+            expect(!SessionIdGenerator.parse(token, id) && id[0] == 0 && id[1] == 0, "token " + token
+                    + " accepted");
+        }
+        expect(SessionIdGenerator.parse("00000000-0000-0001-0000-000000000002", id) && id[0] == 1 && id[1] == 2,
+                "UUID cookie parsed wrong");
+    }
+
+    /**
+     * Parses two pipelined requests from one buffer, the first one received
+     * in pieces, and checks the codings refused with a zero q value.
+     */
+    private static void verifyParser() {
+        String first = "POST / HTTP/1.1\r\nHost: localhost\r\nContent-Length: 11\r\n"
+                + "Accept-Encoding: gzip;q=0, deflate\r\nCookie: theme=dark; SESSIONID=abc\r\n\r\nguess=crane";
+        String second = "\r\nGET /play.html?Guess=slate HTTP/1.0\r\nAccept-Encoding: gzip; q=0.5, deflate; Q=0.00"
+                + "\r\n\r\n";
+        byte[] bytes = (first + second).getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer buffer = ByteBuffer.allocate(HttpRequest.INITIAL_BUFFER_SIZE);
+        HttpRequest request = new HttpRequest();
+        for (int received = 1; received < first.length(); received++) {
+            buffer.clear();
+            buffer.put(bytes, 0, received);
+            expect(request.parse(buffer, 0, received) == HttpRequest.INCOMPLETE, "request parsed from "
+                    + received + " bytes");
+        }
+        buffer.clear();
+        buffer.put(bytes);
+        int end = request.parse(buffer, 0, buffer.position());
+        expect(end == first.length(), "first request ends at " + end);
+        expect(request.methodIs("POST") && request.pathIs("/") && request.contentLength() == 11,
+                "wrong request line or length");
+        expect(!request.acceptsGzip() && request.acceptsDeflate(), "gzip;q=0 accepted");
+        expect("abc".equals(request.sessionId()), "wrong session cookie " + request.sessionId());
+        expect(request.wordParameter("guess") == WordleDictionary.encode("CRANE"), "wrong guess in the body");
+        expect(request.isKeepAlive() && request.acceptsChunked(), "HTTP/1.1 request not kept alive");
+        // The second request is parsed where it was received, then moved first
+        HttpRequest.consume(buffer, end);
+        end = request.parse(buffer, 0, buffer.position());
+        expect(end == second.length(), "second request ends at " + end);
+        expect(request.methodIs("GET") && request.pathIs("/play.html") && request.queryContainsIgnoreCase("guess="),
+                "wrong second request line");
+        expect(request.wordParameter("guess") >= 0, "guess of the query not found");
+        expect(request.acceptsGzip() && !request.acceptsDeflate(), "deflate;Q=0.00 accepted");
+        expect(!request.isKeepAlive() && !request.acceptsChunked(), "HTTP/1.0 request kept alive");
+        expect(request.sessionId() == null, "session cookie left from the first request");
+        byte[] malformed = "GET /\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+        expect(request.parse(ByteBuffer.wrap(malformed), 0, malformed.length) == HttpRequest.MALFORMED,
+                "request line without a version accepted");
+    }
+
+    /**
+     * Checks that nodes listed in any order agree on the owners, that each of
+     * three nodes owns a fair share, and that a node joining only takes
+     * sessions and never moves them between the other nodes.
+     */
+    private static void verifyRing() {
+        List<String> nodes = List.of("10.0.0.1:8080", "10.0.0.2:8080", "10.0.0.3:8080");
+        HashRing ring = new HashRing(nodes);
+        HashRing reversed = new HashRing(List.of(nodes.get(2), nodes.get(1), nodes.get(0)));
+        HashRing grown = new HashRing(List.of(nodes.get(0), nodes.get(1), nodes.get(2), "10.0.0.4:8080"));
+        int sessions = 300000;
+        int[] owned = new int[nodes.size()];
+        int moved = 0;
+        Random random = new Random(19);
+        for (int i = 0; i < sessions; i++) {
+            long high = random.nextLong();
+            long low = random.nextLong();
+            int owner = ring.owner(high, low);
+            owned[owner]++;
+            expect(ring.node(owner).equals(reversed.node(reversed.owner(high, low))), "nodes disagree on an owner");
+            String after = grown.node(grown.owner(high, low));
+            if (!after.equals(ring.node(owner))) {
+                expect(after.equals("10.0.0.4:8080"), "a session moved to " + after + " from " + ring.node(owner));
+                moved++;
+            }
+        }
+        for (int i = 0; i < owned.length; i++) {
+            expect(owned[i] > sessions / 5 && owned[i] < sessions / 2, nodes.get(i) + " owns " + owned[i]
+                    + " sessions of " + sessions);
+        }
+        expect(moved > sessions / 8 && moved < sessions * 3 / 8, moved + " sessions moved to the new node");
+        expect(ring.indexOf("10.0.0.2:8080") == 1 && ring.indexOf("10.0.0.4:8080") == -1, "wrong node indexes");
+    }
+
+    /**
+     * Checks the page answering a guess compressed in parts against the whole
+     * page, then compares compressing the whole page per guess with
+     * compressing only its guess section.
+     */
+    private static void page(int iterations) throws IOException {
+        String imagePath = "logo.png";
+        String[] names = { "identity", "gzip", "deflate" };
+        for (int encoding = Compression.IDENTITY; encoding <= Compression.DEFLATE; encoding++) {
+            java.io.ByteArrayOutputStream out = new java.io.ByteArrayOutputStream();
+            HtmlContainer.writeGuessPage(out, imagePath, "GYBBG", "crane", encoding);
+            byte[] bytes = out.toByteArray();
+            if (encoding != Compression.IDENTITY) {
+                java.io.InputStream in = new java.io.ByteArrayInputStream(bytes);
+                in = encoding == Compression.GZIP ? new java.util.zip.GZIPInputStream(in)
+                        : new java.util.zip.InflaterInputStream(in);
+                bytes = in.readAllBytes();
+            }
+            if (!Arrays.equals(bytes, HtmlContainer.getGuessPageBytes(imagePath, "GYBBG", "crane"))) {
+                System.out.println("Mismatch : the " + names[encoding] + " page differs from the whole page");
+                return;
+            }
+        }
+        for (int round = 0; round < 2; round++) {
+            // The first round only warms up the JIT
+            for (int encoding = Compression.GZIP; encoding <= Compression.DEFLATE; encoding++) {
+                long wholeSize = 0;
+                long start = System.nanoTime();
+                for (int i = 0; i < iterations; i++) {
+                    wholeSize += Compression.compress(HtmlContainer.getGuessPageBytes(imagePath, "GYBBG", "crane"),
+                            encoding, java.util.zip.Deflater.BEST_SPEED).length;
+                }
+                long wholeTime = System.nanoTime() - start;
+                java.io.ByteArrayOutputStream out = new java.io.ByteArrayOutputStream();
+                start = System.nanoTime();
+                for (int i = 0; i < iterations; i++) {
+                    out.reset();
+                    HtmlContainer.writeGuessPage(out, imagePath, "GYBBG", "crane", encoding);
+                }
+                long partsTime = System.nanoTime() - start;
+                if (round == 1) {
+                    System.out.printf("%-8s whole page: %6.0f ns/page, %d bytes%n", names[encoding],
+                            (double) wholeTime / iterations, wholeSize / iterations);
+                    System.out.printf("%-8s section:    %6.0f ns/page, %d bytes%n", names[encoding],
+                            (double) partsTime / iterations, out.size());
+                }
+            }
+        }
+    }
+
+    /**
+     * Measures the guesses logged per second with concurrent players, then the
+     * time to recover the games from the snapshot and the logs.
+     */
+    private static void wal(int count, String syncPolicy, int threads) throws Exception {
+        java.nio.file.Path directory = java.nio.file.Files.createTempDirectory("wordle-wal");
+        int[] guesses = { WordleDictionary.encode("CRANE"), WordleDictionary.encode("SLATE"),
+                WordleDictionary.encode("PIOUS") };
+        SessionTable table = new SessionTable(() -> 0, 1800000, count);
+        SessionLog log = new SessionLog(table, directory.toString(), syncPolicy);
+        // Time spent waiting to enter a monitor, the segment locks and the log
+        java.lang.management.ThreadMXBean threadBean = java.lang.management.ManagementFactory.getThreadMXBean();
+        threadBean.setThreadContentionMonitoringEnabled(true);
+        java.util.concurrent.atomic.LongAdder blocked = new java.util.concurrent.atomic.LongAdder();
+        java.util.concurrent.atomic.LongAdder blockedMillis = new java.util.concurrent.atomic.LongAdder();
+        Thread[] players = new Thread[threads];
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            long seed = t;
+            players[t] = new Thread(() -> {
+                long[] state = new long[PackedGame.STATE_LONGS];
+                java.util.Random random = new java.util.Random(seed);
+                for (int i = 0; i < count / threads; i++) {
+                    long idHigh = random.nextLong() | 1;
+                    long idLow = random.nextLong();
+                    for (int guess : guesses) {
+                        table.addAttempt(idHigh, idLow, guess, state);
+                        try {
+                            table.awaitDurable();
+                        } catch (IOException e) {
+                            throw new java.io.UncheckedIOException(e);
+                        }
+                    }
+                }
+                java.lang.management.ThreadInfo info = threadBean.getThreadInfo(Thread.currentThread().getId());
+                blocked.add(info.getBlockedCount());
+                blockedMillis.add(info.getBlockedTime());
+            });
+            players[t].start();
+        }
+        for (Thread player : players) {
+            player.join();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        log.close();
+        long played = (long) count / threads * threads;
+        System.out.printf("%s, %d threads: %.0f guesses/s, %.1f records/frame, %d syncs%n", syncPolicy, threads,
+                played * guesses.length / seconds, (double) log.getRecordCount() / Math.max(1, log.getFrameCount()),
+                log.getSyncCount());
+        System.out.printf("blocked on a lock: %d times, %d ms over all threads%n", blocked.sum(),
+                blockedMillis.sum());
+        long bytes = 0;
+        try (java.util.stream.Stream<java.nio.file.Path> files = java.nio.file.Files.list(directory)) {
+            for (java.nio.file.Path file : (Iterable<java.nio.file.Path>) files::iterator) {
+                bytes += java.nio.file.Files.size(file);
+            }
+        }
+        System.out.printf("on disk: %d MB%n", bytes / (1024 * 1024));
+        // The second log prints how long the recovery took
+        SessionTable recovered = new SessionTable(() -> 0, 1800000, count);
+        new SessionLog(recovered, directory.toString(), "never").close();
+        System.out.println("recovered " + recovered.getLiveCount() + " of " + table.getLiveCount() + " games");
+        try (java.util.stream.Stream<java.nio.file.Path> files = java.nio.file.Files.list(directory)) {
+            for (java.nio.file.Path file : (Iterable<java.nio.file.Path>) files::iterator) {
+                java.nio.file.Files.delete(file);
+            }
+        }
+        java.nio.file.Files.delete(directory);
+    }
+
+    /**
+     * Compares drawing session IDs and encoding their cookie line with
+     * UUID.randomUUID and with the batched generator, all threads
+     * drawing at once.
+     */
+    private static void ids(int threads, int seconds) throws InterruptedException {
+        String[] names = { "UUID.randomUUID", "SessionIdGenerator" };
+        for (int round = 0; round < 2; round++) {
+            // The first round only warms up the JIT
+            for (int kind = 0; kind < names.length; kind++) {
+                int generator = kind;
+                java.util.concurrent.atomic.LongAdder drawn = new java.util.concurrent.atomic.LongAdder();
+                long end = System.nanoTime() + (round == 0 ? 1 : seconds) * 1_000_000_000L;
+                Thread[] drawers = new Thread[threads];
+                for (int t = 0; t < threads; t++) {
+                    drawers[t] = new Thread(() -> {
+                        long[] id = new long[2];
+                        long count = 0;
+                        long sink = 0;
+                        while ((count & 255) != 0 || System.nanoTime() < end) {
+                            if (generator == 0) {
+                                String line = "Set-Cookie: SESSIONID=" + java.util.UUID.randomUUID() + "; Max-Age="
+                                        + WordleServer.SESSION_MAX_AGE + "; SameSite=Strict\r\n";
+                                sink += line.getBytes(StandardCharsets.ISO_8859_1).length;
+                            } else {
+                                SessionIdGenerator.next(id);
+                                sink += SessionIdGenerator.setCookieLine(id[0], id[1]).length;
+                            }
+                            count++;
+                        }
+                        drawn.add(count + (sink & 1));
+                    });
+                    drawers[t].start();
+                }
+                for (Thread drawer : drawers) {
+                    drawer.join();
+                }
+                if (round == 1) {
+                    System.out.printf("%-18s %d threads: %,.0f IDs/s%n", names[kind], threads,
+                            (double) drawn.sum() / seconds);
+                }
+            }
+        }
+    }
+
+    /**
+     * Compares the membership test of a String set with the allocation-free
+     * bitset test on request bytes.
+     */
+    private static void dictionary(int iterations) {
+        // Half words, half random letters, as a guess could be
+        java.util.Random random = new java.util.Random(42);
+        ByteBuffer guesses = ByteBuffer.allocate(4096 * 5);
+        for (int i = 0; i < 4096; i++) {
+            String word = WordleDictionary.word(random.nextInt(WordleDictionary.size())).toLowerCase();
+            for (int j = 0; j < 5; j++) {
+                guesses.put((byte) (i % 2 == 0 ? word.charAt(j) : 'a' + random.nextInt(26)));
+            }
+        }
+        byte[] bytes = guesses.array();
+        for (int round = 0; round < 2; round++) {
+            // The first round only warms up the JIT
+            long found = 0;
+            long allocated = allocatedBytes();
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                String guess = new String(bytes, (i & 4095) * 5, 5, StandardCharsets.ISO_8859_1);
+                found += WordleWordSet.WORD_SET.contains(guess) ? 1 : 0;
+            }
+            long setTime = System.nanoTime() - start;
+            long setAllocated = allocatedBytes() - allocated;
+            allocated = allocatedBytes();
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                found += WordleDictionary.contains(guesses, (i & 4095) * 5) ? 1 : 0;
+            }
+            long bitsetTime = System.nanoTime() - start;
+            long bitsetAllocated = allocatedBytes() - allocated;
+            if (round == 1) {
+                System.out.printf("WORD_SET.contains: %.1f ns, %.0f bytes per test (%d found)%n",
+                        (double) setTime / iterations, (double) setAllocated / iterations, found);
+                System.out.printf("bitset contains:   %.1f ns, %.0f bytes per test%n",
+                        (double) bitsetTime / iterations, (double) bitsetAllocated / iterations);
+            }
+        }
+    }
+
+    /**
+     * Loads the words once, from the dictionary file or from the word set, and
+     * measures what it costs.
+     */
+    private static void startup(String source) {
+        long before = usedHeap();
+        long start = System.nanoTime();
+        int words = source.equals("set") ? WordleWordSet.WORD_SET.size() : WordleDictionary.size();
+        double millis = (System.nanoTime() - start) / 1e6;
+        long retained = usedHeap() - before;
+        System.out.printf("%s: %d words, loaded in %.1f ms, heap %d KB%n", source.equals("set") ? "WordleWordSet"
+                : "WordleDictionary", words, millis, retained / 1024);
+    }
+
+    /**
+     * Compares the former scoring of a guess with the scoring of packed words,
+     * on pairs of dictionary words with their repeated letters.
+     */
+    private static void score(int iterations) {
+        java.util.Random random = new java.util.Random(42);
+        int[] guesses = new int[4096];
+        int[] answers = new int[4096];
+        String[] guessWords = new String[4096];
+        String[] answerWords = new String[4096];
+        for (int i = 0; i < 4096; i++) {
+            guesses[i] = WordleDictionary.code(random.nextInt(WordleDictionary.size()));
+            answers[i] = WordleDictionary.code(random.nextInt(WordleDictionary.size()));
+            guessWords[i] = WordleDictionary.decode(guesses[i], new StringBuilder()).toString();
+            answerWords[i] = WordleDictionary.decode(answers[i], new StringBuilder()).toString();
+        }
+        for (int i = 0; i < 4096; i++) {
+            String pattern = WordleScorer.appendPattern(WordleScorer.score(guesses[i], answers[i]),
+                    new StringBuilder()).toString();
+            if (!pattern.equals(legacyScore(guessWords[i], answerWords[i]))) {
+                System.out.println("Mismatch : " + guessWords[i] + " against " + answerWords[i] + ", " + pattern
+                        + " instead of " + legacyScore(guessWords[i], answerWords[i]));
+                return;
+            }
+        }
+        for (int round = 0; round < 2; round++) {
+            // The first round only warms up the JIT
+            long sum = 0;
+            long allocated = allocatedBytes();
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations / 10; i++) {
+                sum += legacyScore(guessWords[i & 4095], answerWords[i & 4095]).charAt(0);
+            }
+            long legacyTime = (System.nanoTime() - start) * 10;
+            long legacyAllocated = (allocatedBytes() - allocated) * 10;
+            allocated = allocatedBytes();
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                sum += WordleScorer.score(guesses[i & 4095], answers[i & 4095]);
+            }
+            long kernelTime = System.nanoTime() - start;
+            long kernelAllocated = allocatedBytes() - allocated;
+            if (round == 1) {
+                System.out.printf("HashMap scoring: %.1f ns, %.0f bytes per score (%d)%n",
+                        (double) legacyTime / iterations, (double) legacyAllocated / iterations, sum);
+                System.out.printf("packed scoring:  %.1f ns, %.0f bytes per score%n",
+                        (double) kernelTime / iterations, (double) kernelAllocated / iterations);
+            }
+        }
+    }
+
+    /**
+     * Compares reading scores from the mapped matrix with computing them.
+     */
+    private static void matrix(String file, int iterations) throws IOException {
+        FeedbackMatrix matrix = new FeedbackMatrix(file);
+        int size = WordleDictionary.size();
+        java.util.Random random = new java.util.Random(42);
+        int[] pairs = new int[2 * 65536];
+        for (int i = 0; i < pairs.length; i++) {
+            pairs[i] = random.nextInt(size);
+        }
+        for (int i = 0; i < pairs.length; i += 2) {
+            if (matrix.score(pairs[i], pairs[i + 1]) != WordleScorer.score(WordleDictionary.code(pairs[i]),
+                    WordleDictionary.code(pairs[i + 1]))) {
+                System.out.println("Mismatch : " + WordleDictionary.word(pairs[i]) + " against "
+                        + WordleDictionary.word(pairs[i + 1]));
+                return;
+            }
+        }
+        for (int round = 0; round < 2; round++) {
+            // The first round only warms up the JIT and the page cache
+            long sum = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                int pair = (i & 65535) * 2;
+                // A new guess every time, the pairs spread over the whole file
+                sum += matrix.score((pairs[pair] + i) % size, pairs[pair + 1]);
+            }
+            long randomTime = System.nanoTime() - start;
+            start = System.nanoTime();
+            int scanned = 0;
+            for (int guess = 0; scanned < iterations; guess = (guess + 1) % size) {
+                ByteBuffer row = matrix.row(guess);
+                for (int answer = 0; answer < size; answer++) {
+                    sum += row.get(answer);
+                }
+                scanned += size;
+            }
+            long rowTime = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                int pair = (i & 65535) * 2;
+                sum += WordleScorer.score(WordleDictionary.code((pairs[pair] + i) % size),
+                        WordleDictionary.code(pairs[pair + 1]));
+            }
+            long computeTime = System.nanoTime() - start;
+            if (round == 1) {
+                System.out.printf("matrix, random pairs: %.1f ns per score (%d)%n", (double) randomTime / iterations,
+                        sum);
+                System.out.printf("matrix, whole rows:   %.2f ns per score%n", (double) rowTime / scanned);
+                System.out.printf("WordleScorer:         %.1f ns per score%n", (double) computeTime / iterations);
+            }
+        }
+    }
+
+    /**
+     * Compares scoring a guess against every word one call at a time with
+     * scoring it in one batch.
+     */
+    private static void batch(int guesses) {
+        int size = WordleDictionary.size();
+        int[] answers = new int[size];
+        for (int i = 0; i < size; i++) {
+            answers[i] = WordleDictionary.code(i);
+        }
+        byte[] expected = new byte[size];
+        byte[] scores = new byte[size];
+        for (int guess = 0; guess < size; guess += 7) {
+            for (int i = 0; i < size; i++) {
+                expected[i] = (byte) WordleScorer.score(answers[guess], answers[i]);
+            }
+            WordleScorer.scoreAll(answers[guess], answers, size, scores, 0);
+            if (!Arrays.equals(expected, scores)) {
+                System.out.println("Mismatch : " + WordleDictionary.word(guess) + " scored differently");
+                return;
+            }
+        }
+        for (int round = 0; round < 2; round++) {
+            // The first round only warms up the JIT
+            long sum = 0;
+            long start = System.nanoTime();
+            for (int guess = 0; guess < guesses; guess++) {
+                int code = answers[guess % size];
+                for (int i = 0; i < size; i++) {
+                    scores[i] = (byte) WordleScorer.score(code, answers[i]);
+                }
+                sum += scores[guess % size];
+            }
+            long callTime = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int guess = 0; guess < guesses; guess++) {
+                WordleScorer.scoreAll(answers[guess % size], answers, size, scores, 0);
+                sum += scores[guess % size];
+            }
+            long batchTime = System.nanoTime() - start;
+            if (round == 1) {
+                double pairs = (double) guesses * size;
+                System.out.printf("score per call:     %.1f M scores/s, %.2f ns per score (%d)%n",
+                        pairs * 1e3 / callTime, callTime / pairs, sum);
+                System.out.printf("scoreAll (%s): %.1f M scores/s, %.2f ns per score%n", WordleScorer.batchKind(),
+                        pairs * 1e3 / batchTime, batchTime / pairs);
+            }
+        }
+    }
+
+    /** The scoring of playWordle before {@link WordleScorer}. */
+    private static String legacyScore(String guess, String rightWord) {
+        char[] result = new char[5];
+        java.util.Map<Character, Integer> map = new java.util.HashMap<>();
+        for (int i = 0; i < rightWord.length(); i++) {
+            char c = rightWord.charAt(i);
+            if (map.containsKey(c)) {
+                map.put(c, map.get(c) + 1);
+            } else {
+                map.put(c, 1);
+            }
+        }
+        for (int i = 0; i < guess.length(); i++) {
+            char c = guess.charAt(i);
+            if (rightWord.charAt(i) == c) {
+                result[i] = 'G';
+                map.put(c, map.get(c) - 1);
+            } else {
+                result[i] = 'B';
+            }
+        }
+        for (int i = 0; i < guess.length(); i++) {
+            char c = guess.charAt(i);
+            if (rightWord.charAt(i) != c && map.containsKey(c) && map.get(c) > 0) {
+                result[i] = 'Y';
+                map.put(c, map.get(c) - 1);
+            }
+        }
+        StringBuilder stringBuilder = new StringBuilder();
+        for (char c : result) {
+            stringBuilder.append(c);
+        }
+        return stringBuilder.toString();
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * One simulated player. It frames responses with Content-Length so it works
+     * both with servers closing after each response and with kept-alive
+     * connections.
+     */
+    private static final class LoadClient {
+        private static final String[] GUESSES = { "crane", "slate", "pious", "dwelt", "gumbo", "fjord" };
+
+        private final InetSocketAddress address;
+        private final ByteBuffer in = ByteBuffer.allocate(64 * 1024);
+        private ByteBuffer out;
+        private long sentAt;
+        private int guess;
+        // The session given by the server, sent back so the guesses play one game
+        private String cookie;
+
+        LoadClient(InetSocketAddress address) {
+            this.address = address;
+        }
+
+        void connect(Selector selector) throws IOException {
+            SocketChannel channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.connect(address);
+            channel.register(selector, SelectionKey.OP_CONNECT, this);
+        }
+
+        void onReady(SelectionKey key, Selector selector, LatencyRecorder latencies) throws IOException {
+            SocketChannel channel = (SocketChannel) key.channel();
+            if (key.isConnectable()) {
+                channel.finishConnect();
+                startRequest(key);
+            }
+            if (key.isValid() && key.isWritable()) {
+                channel.write(out);
+                if (!out.hasRemaining()) {
+                    key.interestOps(SelectionKey.OP_READ);
+                }
+            }
+            if (key.isValid() && key.isReadable()) {
+                int read = channel.read(in);
+                int length = responseLength();
+                if (length > 0 && in.position() >= length) {
+                    latencies.record(System.nanoTime() - sentAt);
+                    keepCookie();
+                    boolean close = headContains("Connection: close");
+                    in.clear();
+                    if (close) {
+                        key.cancel();
+                        channel.close();
+                        connect(selector);
+                    } else {
+                        startRequest(key);
+                    }
+                } else if (read == -1) {
+                    throw new IOException("Connection closed before the end of the response");
+                }
+            }
+        }
+
+        private void startRequest(SelectionKey key) {
+            String request = "GET /play.html?guess=" + GUESSES[guess++ % GUESSES.length] + " HTTP/1.1\r\n"
+                    + "Host: " + address.getHostString() + "\r\n"
+                    + (cookie != null ? "Cookie: SESSIONID=" + cookie + "\r\n" : "") + "\r\n";
+            out = ByteBuffer.wrap(request.getBytes(StandardCharsets.ISO_8859_1));
+            sentAt = System.nanoTime();
+            key.interestOps(SelectionKey.OP_WRITE);
+        }
+
+        /**
+         * Returns the full length of the response once its head has arrived, or
+         * -1 while the head is still incomplete.
+         */
+        private int responseLength() {
+            String head = head();
+            if (head == null) {
+                return -1;
+            }
+            int index = head.indexOf("Content-Length: ");
+            if (index < 0) {
+                return head.length() + 4;
+            }
+            int end = head.indexOf("\r\n", index);
+            int length = Integer.parseInt(head.substring(index + 16, end < 0 ? head.length() : end).trim());
+            return head.length() + 4 + length;
+        }
+
+        /** Keeps the session cookie set by the response, if any, for the next requests. */
+        private void keepCookie() {
+            String head = head();
+            int index = head.indexOf("Set-Cookie: SESSIONID=");
+            if (index >= 0) {
+                int start = index + "Set-Cookie: SESSIONID=".length();
+                int end = head.indexOf(';', start);
+                String value = head.substring(start, end < 0 ? head.length() : end);
+                // An empty value drops the cookie, as at the end of a stateless game
+                cookie = value.isEmpty() ? null : value;
+            }
+        }
+
+        private boolean headContains(String text) {
+            String head = head();
+            return head != null && head.contains(text);
+        }
+
+        private String head() {
+            String received = new String(in.array(), 0, in.position(), StandardCharsets.ISO_8859_1);
+            int end = received.indexOf("\r\n\r\n");
+            return end < 0 ? null : received.substring(0, end);
+        }
+    }
+
+    /**
+     * Collects latencies in nanoseconds and reports percentiles.
+     */
+    private static final class LatencyRecorder {
+        private long[] values = new long[1 << 16];
+        private int size;
+
+        void record(long nanos) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = nanos;
+        }
+
+        int count() {
+            return size;
+        }
+
+        double percentile(double p) {
+            if (size == 0) {
+                return 0;
+            }
+            long[] sorted = Arrays.copyOf(values, size);
+            Arrays.sort(sorted);
+            return sorted[Math.min(size - 1, (int) (p * size))];
+        }
+    }
+}
@@ -0,0 +1,352 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+/**
+ * The WordleDictionary class numbers the words of {@link WordleWordSet} so that
+ * a game can refer to a word by its index instead of a String. The words are
+ * kept packed, sorted, in one array built once.
+ * <p>
+ * It packs 5-letter words in the 25 low bits of an int, 5 bits per letter
+ * from A = 0 to Z = 25, the first letter in the lowest bits. Any guess made of
+ * the 26 letters can be packed, whether it is in the dictionary or not.
+ * <p>
+ * The words are read from the {@value #FILE} file written by {@link #main}:
+ * the magic bytes "WRDL", the format version, the word count and the CRC32 of
+ * the codes, then the sorted packed words, 4 big-endian bytes each. The 58 KB
+ * file is read at once and copied in one bulk get, so loading takes a few
+ * milliseconds and never loads WordleWordSet, whose 282 KB class builds two
+ * HashSets of Strings in its static initializer. Without the file, or with a damaged one, the
+ * words come from WordleWordSet as before.
+ * <p>
+ * Membership is answered by a bitset of every 5-letter word, 26^5 bits (1.5 MB),
+ * indexed by the rank of the word in base 26, the first letter the most
+ * significant. A test reads the letters, computes the rank and reads one bit,
+ * from a packed word, a char array or the bytes of a request, without creating
+ * anything. As ranks follow the alphabetical order, the sorted ranks also give
+ * the index of a packed word.
+ */
+public class WordleDictionary {
+
+    /** The number of bits of a packed word. */
+    public static final int CODE_BITS = 25;
+
+    /** The dictionary file, next to the logo of the page. */
+    public static final String FILE = "words.bin";
+
+    private static final int MAGIC = 0x5752444C;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+
+    private static final int WORD_COUNT = 26 * 26 * 26 * 26 * 26;
+
+    // The packed form and the rank of each word, by index
+    private static final int[] CODES;
+    private static final int[] RANKS;
+    private static final long[] MEMBERS;
+    private static final int HASH;
+
+    static {
+        // Filled through locals: until the class is initialized, every access
+        // to its static fields takes the slow path of the interpreter
+        int[] codes = load();
+        int[] ranks = new int[codes.length];
+        long[] members = new long[(WORD_COUNT + 63) / 64];
+        for (int i = 0; i < codes.length; i++) {
+            int rank = rank(codes[i]);
+            ranks[i] = rank;
+            members[rank >>> 6] |= 1L << rank;
+        }
+        CODES = codes;
+        RANKS = ranks;
+        MEMBERS = members;
+        HASH = checksum(codes);
+    }
+
+    private static int[] load() {
+        try {
+            return read(Paths.get(FILE));
+        } catch (IOException e) {
+            System.out.println("Problem : " + e.getMessage() + ", reading the words of WordleWordSet");
+            return fromWordSet();
+        }
+    }
+
+    private static int[] fromWordSet() {
+        String[] words = new String[WordleWordSet.WORD_SET.size()];
+        int i = 0;
+        for (String word : WordleWordSet.WORD_SET) {
+            words[i++] = word.toUpperCase(Locale.ROOT);
+        }
+        Arrays.sort(words);
+        int[] codes = new int[words.length];
+        for (i = 0; i < words.length; i++) {
+            codes[i] = encode(words[i]);
+        }
+        return codes;
+    }
+
+    /**
+     * Reads and checks a dictionary file.
+     *
+     * @param path The file.
+     * @return The packed words, sorted.
+     * @throws IOException If the file cannot be read or is not a valid
+     *                     dictionary.
+     */
+    private static int[] read(Path path) throws IOException {
+        long size = Files.size(path);
+        if (size < HEADER_SIZE || size > HEADER_SIZE + 4L * WORD_COUNT) {
+            throw new IOException(path + " is not a dictionary");
+        }
+        ByteBuffer file = ByteBuffer.wrap(Files.readAllBytes(path));
+        int count = file.getInt(8);
+        if (file.getInt(0) != MAGIC || file.getInt(4) != VERSION || file.capacity() != HEADER_SIZE + 4L * count) {
+            throw new IOException(path + " is not a dictionary of version " + VERSION);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(file.array(), HEADER_SIZE, 4 * count);
+        if ((int) crc.getValue() != file.getInt(12)) {
+            throw new IOException(path + " is damaged");
+        }
+        int[] codes = new int[count];
+        file.position(HEADER_SIZE).asIntBuffer().get(codes);
+        int previous = -1;
+        for (int code : codes) {
+            // The words must be valid and strictly sorted for the lookups
+            int rank = rank(code);
+            if (rank <= previous) {
+                throw new IOException(path + " is damaged");
+            }
+            previous = rank;
+        }
+        return codes;
+    }
+
+    /**
+     * Writes the words of {@link WordleWordSet} to the dictionary file, in
+     * place of the previous one at once. Run it whenever the word set changes.
+     *
+     * @param args The file to write, {@value #FILE} by default.
+     * @throws IOException If the file cannot be written.
+     */
+    public static void main(String[] args) throws IOException {
+        Path path = Paths.get(args.length > 0 ? args[0] : FILE);
+        // The word set itself, never a previous file
+        int[] codes = fromWordSet();
+        ByteBuffer file = ByteBuffer.allocate(HEADER_SIZE + 4 * codes.length);
+        file.position(HEADER_SIZE).asIntBuffer().put(codes);
+        file.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, codes.length).putInt(12, checksum(codes));
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.write(tmp, file.array());
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        System.out.println(codes.length + " words written to " + path);
+    }
+
+    /** @return The CRC32 of the codes as in the file. */
+    private static int checksum(int[] codes) {
+        ByteBuffer bytes = ByteBuffer.allocate(4 * codes.length);
+        bytes.asIntBuffer().put(codes);
+        CRC32 crc = new CRC32();
+        crc.update(bytes.array());
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Returns the hash of the words, the same whether they come from the file
+     * or from WordleWordSet. Files computed from the dictionary keep it to
+     * tell when they are out of date.
+     *
+     * @return The CRC32 of the packed words, in order.
+     */
+    public static int hash() {
+        return HASH;
+    }
+
+    /** @return The number of words. */
+    public static int size() {
+        return CODES.length;
+    }
+
+    /**
+     * Returns a word by its index.
+     *
+     * @param index The index of the word, from 0 to {@link #size()} excluded.
+     * @return The word, in uppercase.
+     */
+    public static String word(int index) {
+        return decode(CODES[index], new StringBuilder(5)).toString();
+    }
+
+    /**
+     * Returns the index of a word.
+     *
+     * @param word The word, in uppercase.
+     * @return The index of the word, or a negative value if it is not in the
+     *         dictionary.
+     */
+    public static int indexOf(String word) {
+        int code = encode(word);
+        return code < 0 ? -1 : indexOf(code);
+    }
+
+    /**
+     * Returns the packed form of a word by its index.
+     *
+     * @param index The index of the word, from 0 to {@link #size()} excluded.
+     * @return The packed word.
+     */
+    public static int code(int index) {
+        return CODES[index];
+    }
+
+    /**
+     * Returns the index of a packed word.
+     *
+     * @param code The packed word.
+     * @return The index of the word, or a negative value if it is not in the
+     *         dictionary.
+     */
+    public static int indexOf(int code) {
+        int rank = rank(code);
+        return rank < 0 ? -1 : Arrays.binarySearch(RANKS, rank);
+    }
+
+    /**
+     * Tells whether a packed word is in the dictionary.
+     *
+     * @param code The packed word.
+     * @return true if it is a word of the dictionary.
+     */
+    public static boolean contains(int code) {
+        return isMember(rank(code));
+    }
+
+    /**
+     * Tells whether 5 letters of a char array, in either case, are a word of
+     * the dictionary.
+     *
+     * @param chars  The characters.
+     * @param offset The index of the first letter.
+     * @return true if it is a word of the dictionary.
+     */
+    public static boolean contains(char[] chars, int offset) {
+        int rank = 0;
+        for (int i = offset; i < offset + 5; i++) {
+            int letter = (chars[i] | 0x20) - 'a';
+            if (letter < 0 || letter >= 26) {
+                return false;
+            }
+            rank = rank * 26 + letter;
+        }
+        return isMember(rank);
+    }
+
+    /**
+     * Tells whether 5 ASCII letters of a buffer, in either case, are a word of
+     * the dictionary. The buffer is read with absolute gets only.
+     *
+     * @param bytes  The buffer.
+     * @param offset The index of the first letter.
+     * @return true if it is a word of the dictionary.
+     */
+    public static boolean contains(ByteBuffer bytes, int offset) {
+        int rank = 0;
+        for (int i = offset; i < offset + 5; i++) {
+            int letter = (bytes.get(i) | 0x20) - 'a';
+            if (letter < 0 || letter >= 26) {
+                return false;
+            }
+            rank = rank * 26 + letter;
+        }
+        return isMember(rank);
+    }
+
+    private static boolean isMember(int rank) {
+        return rank >= 0 && (MEMBERS[rank >>> 6] & 1L << rank) != 0;
+    }
+
+    /**
+     * Returns the rank in base 26 of a packed word, the first letter the most
+     * significant, so ranks sort like words.
+     *
+     * @return The rank, or -1 if a letter is past Z.
+     */
+    private static int rank(int code) {
+        if (code >>> CODE_BITS != 0) {
+            return -1;
+        }
+        int rank = 0;
+        for (int i = 0; i < 5; i++) {
+            int letter = code >>> (5 * i) & 0x1f;
+            if (letter >= 26) {
+                return -1;
+            }
+            rank = rank * 26 + letter;
+        }
+        return rank;
+    }
+
+    /**
+     * Packs a word of 5 uppercase letters.
+     *
+     * @param word The word.
+     * @return The packed word, or -1 if it is not made of 5 letters from A to
+     *         Z.
+     */
+    public static int encode(CharSequence word) {
+        if (word.length() != 5) {
+            return -1;
+        }
+        int code = 0;
+        for (int i = 4; i >= 0; i--) {
+            int letter = word.charAt(i) - 'A';
+            if (letter < 0 || letter >= 26) {
+                return -1;
+            }
+            code = code << 5 | letter;
+        }
+        return code;
+    }
+
+    /**
+     * Packs 5 ASCII letters of a buffer, in either case. The buffer is read
+     * with absolute gets only.
+     *
+     * @param bytes  The buffer.
+     * @param offset The index of the first letter.
+     * @return The packed word, or -1 if the bytes are not 5 letters.
+     */
+    public static int encode(ByteBuffer bytes, int offset) {
+        int code = 0;
+        for (int i = offset + 4; i >= offset; i--) {
+            int letter = (bytes.get(i) | 0x20) - 'a';
+            if (letter < 0 || letter >= 26) {
+                return -1;
+            }
+            code = code << 5 | letter;
+        }
+        return code;
+    }
+
+    /**
+     * Unpacks a word and appends it.
+     *
+     * @param code The packed word.
+     * @param to   Where to append the 5 letters.
+     * @return The StringBuilder, for chaining.
+     */
+    public static StringBuilder decode(int code, StringBuilder to) {
+        for (int i = 0; i < 5; i++) {
+            to.append((char) ('A' + (code & 0x1f)));
+            code >>>= 5;
+        }
+        return to;
+    }
+}
@@ -0,0 +1,141 @@
+/**
+ * The WordleScorer class scores a guess against the word to find, both
+ * {@link WordleDictionary#encode packed words}, without any object.
+ * <p>
+ * A score is the pattern of the 5 letters as one base-3 number from 0 to
+ * {@value #ALL_GREEN}: the digit of letter i, weighing 3^i so the first letter
+ * is the lowest digit as in a packed word, is 0 for a letter not in the word
+ * (B), 1 for a letter elsewhere in the word (Y) and 2 for a letter in place
+ * (G). It fits in a byte, as {@code (byte) score} read back with
+ * {@code & 0xff}.
+ * <p>
+ * Repeated letters are scored as the game does: the letters in place are taken
+ * first, then each other letter of the guess, from the left, is Y only while
+ * the word has an occurrence of it that is neither in place nor already given
+ * to an earlier Y. The occurrences taken are kept as a 5-bit mask, so no
+ * letter counts are needed.
+ * <p>
+ * A guess can also be scored against many words at once with
+ * {@link #scoreAll}. It uses the {@code VectorScorer} class of the
+ * {@code vector} directory when it was compiled and the JVM runs with
+ * {@code --add-modules jdk.incubator.vector}, and calls {@link #score} for each
+ * word otherwise.
+ */
+public final class WordleScorer {
+
+    /** The score of a guess that is the word to find. */
+    public static final int ALL_GREEN = 242;
+
+    private static final char[] LETTERS = { 'B', 'Y', 'G' };
+
+    private static final Batch BATCH = loadBatch();
+
+    private WordleScorer() {
+    }
+
+    /**
+     * Scores a guess.
+     *
+     * @param guess  The packed guess.
+     * @param answer The packed word to find.
+     * @return The score, from 0 to {@value #ALL_GREEN}.
+     */
+    public static int score(int guess, int answer) {
+        int differences = guess ^ answer;
+        // Bit i set when letter i is in place, in the answer occurrences taken
+        int taken = 0;
+        for (int i = 0; i < 5; i++) {
+            if ((differences >>> (5 * i) & 0x1f) == 0) {
+                taken |= 1 << i;
+            }
+        }
+        int score = 0;
+        int weight = 1;
+        for (int i = 0; i < 5; i++, weight *= 3) {
+            if ((differences >>> (5 * i) & 0x1f) == 0) {
+                score += 2 * weight;
+                continue;
+            }
+            int letter = guess >>> (5 * i) & 0x1f;
+            for (int j = 0; j < 5; j++) {
+                if ((taken & 1 << j) == 0 && (answer >>> (5 * j) & 0x1f) == letter) {
+                    taken |= 1 << j;
+                    score += weight;
+                    break;
+                }
+            }
+        }
+        return score;
+    }
+
+    /**
+     * Scores a guess against many words to find.
+     *
+     * @param guess   The packed guess.
+     * @param answers The packed words to find.
+     * @param count   The number of words to score, from the first.
+     * @param scores  Receives the score of each word, as a byte.
+     * @param offset  Where the score of the first word goes.
+     */
+    public static void scoreAll(int guess, int[] answers, int count, byte[] scores, int offset) {
+        BATCH.scoreAll(guess, answers, count, scores, offset);
+    }
+
+    /** @return "vector" if {@link #scoreAll} runs on the Vector API, "scalar" otherwise. */
+    public static String batchKind() {
+        return BATCH instanceof Scalar ? "scalar" : "vector";
+    }
+
+    private static Batch loadBatch() {
+        try {
+            return (Batch) Class.forName("VectorScorer").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            // Not compiled, or jdk.incubator.vector not added to the JVM
+            return new Scalar();
+        }
+    }
+
+    /**
+     * Appends a score as 5 letters, G, Y or B, the first letter first.
+     *
+     * @param score The score.
+     * @param to    Where to append the letters.
+     * @return The StringBuilder, for chaining.
+     */
+    public static StringBuilder appendPattern(int score, StringBuilder to) {
+        for (int i = 0; i < 5; i++) {
+            to.append(LETTERS[score % 3]);
+            score /= 3;
+        }
+        return to;
+    }
+
+    /**
+     * A way of scoring a guess against many words, as {@link #scoreAll} does.
+     */
+    public interface Batch {
+
+        /**
+         * Scores a guess against many words to find.
+         *
+         * @param guess   The packed guess.
+         * @param answers The packed words to find.
+         * @param count   The number of words to score, from the first.
+         * @param scores  Receives the score of each word, as a byte.
+         * @param offset  Where the score of the first word goes.
+         */
+        void scoreAll(int guess, int[] answers, int count, byte[] scores, int offset);
+    }
+
+    /**
+     * The batch scoring without the Vector API, one word at a time.
+     */
+    private static final class Scalar implements Batch {
+        @Override
+        public void scoreAll(int guess, int[] answers, int count, byte[] scores, int offset) {
+            for (int i = 0; i < count; i++) {
+                scores[offset + i] = (byte) score(guess, answers[i]);
+            }
+        }
+    }
+}
@@ -1,15 +1,18 @@
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
 import java.io.OutputStream;
-import java.net.ServerSocket;
+import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.Set;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * The WordleServer class represents a server for the Wordle game. It handles
@@ -17,14 +20,86 @@ import java.util.concurrent.Executors;
  */
 public class WordleServer {
 
-    private final static Set<String> wordSet = WordleWordSet.WORD_SET;
-    private static Map<String, String> sessionMap = new HashMap<>();
-    private static Map<String, List<String>> attemptsMap = new HashMap<>();
+    /** Lifetime of the session cookie, and idle time after which a game is dropped. */
+    static final int SESSION_MAX_AGE = 1800;
+    private static final String DEFAULT_MAX_SESSIONS = "1000000";
+
+    // Replaced by a seeded picker with --seed
+    private static TargetPicker targets = new TargetPicker(WordleDictionary.size());
+    // Sized by --max-sessions at startup
+    private static SessionTable sessions;
+    // Set in the stateless mode, where the cookie carries the game instead of an ID
+    private static GameCookieSealer cookieSealer;
+    // Set when the games of the table are persisted
+    private static SessionLog sessionLog;
+    // Set in the cluster mode, where each session is owned by one node
+    private static HashRing ring;
+    private static int selfNode;
+    private static NodeClient[] nodeClients;
+    // Signs the forwarded requests, null if they are never trusted
+    private static ClusterKey clusterKey;
+    // Scratch space receiving the session ID of the request being processed
+    private static final ThreadLocal<long[]> SESSION_ID = ThreadLocal.withInitial(() -> new long[2]);
+    // Scratch space receiving the packed game of the guess being played
+    private static final ThreadLocal<long[]> GAME_STATE = ThreadLocal
+            .withInitial(() -> new long[PackedGame.STATE_LONGS]);
 
     private static String imagePath = "logo.png";
 
+    // Paths served straight from a file, next to the file they serve
+    private static final String[][] STATIC_ROUTES = {
+            { "/favicon.ico", "favicon.ico" },
+            { HtmlContainer.LOGO_ROUTE, imagePath } };
+
+    // Guesses played, and guesses turned away before any session work
+    private static final LongAdder acceptedGuesses = new LongAdder();
+    private static final LongAdder rejectedGuesses = new LongAdder();
+    private static final ByteBuffer NOT_A_WORD = ByteBuffer
+            .wrap("Invalid request : not in the word list".getBytes(StandardCharsets.UTF_8)).asReadOnlyBuffer();
+
+    private static final byte[] LOCATION_PLAY = "Location: /play.html\r\n".getBytes(StandardCharsets.ISO_8859_1);
+
+    /** Time a kept-alive connection may stay idle between two requests. */
+    static final int KEEP_ALIVE_TIMEOUT = 15000;
+
+    // In the blocking mode, the connections that may be kept alive, fewer than
+    // the workers so an idle one never holds the last worker
+    private static Semaphore keepAliveSlots;
+
     /**
      * The main method starts the Wordle server and listens for client connections.
+     * Usage: {@code java WordleServer <workers> [blocking|nio|virtual] [loops]
+     * [--sessions=table|cookie] [--max-sessions=<count>] [--keys=<file>]
+     * [--wal=<directory>] [--fsync=always|never|<millis>] [--port=<port>]
+     * [--cluster=<host:port>,...] [--node=<host:port>] [--cluster-key=<file>]
+     * [--seed=<long>]}.
+     * The default blocking mode accepts connections on a blocking channel and hands
+     * each one to a fixed pool of workers. As a kept-alive connection holds its
+     * worker while idle, at most one less than the workers are kept alive, the
+     * other ones are closed after their response. The virtual mode accepts the same way
+     * but starts one virtual thread per connection, so the worker count is
+     * ignored; it needs virtual threads, so Java 21 or later. The nio mode runs
+     * a {@link NioServer} where the selector loops own the connections and only
+     * game logic runs on workers.
+     * Games are kept in a {@link SessionTable} by default, evicting the least
+     * recently played past {@code --max-sessions}, a million by default. With
+     * {@code --sessions=cookie} the server keeps no game at all: each game is
+     * sealed in the cookie by a {@link GameCookieSealer}, with the keys of the
+     * {@code --keys} file shared by every instance, or a random key otherwise.
+     * With {@code --wal}, the games of the table are recovered from the directory
+     * at startup and every change is logged there by a {@link SessionLog},
+     * synced as {@code --fsync} says, before each answer by default.
+     * With {@code --cluster}, listing every node including this one, which is
+     * {@code --node} or {@code localhost:<port>}, the games are spread over the
+     * nodes by a {@link HashRing}: a guess for a session owned by another node is
+     * forwarded to it by a {@link NodeClient}, and new session IDs are only
+     * picked among the ones this node owns. With {@code --cluster-key}, the file
+     * of a {@link ClusterKey} shared by the nodes, a node also plays a guess for
+     * a session it does not own when another node signed it as forwarded, such as
+     * while the nodes do not agree on the ring yet; without it, such guesses
+     * are forwarded to their owner as any other.
+     * With {@code --seed}, the words to find follow a {@link TargetPicker}
+     * sequence of that seed, the same from one run to the next.
      * 
      * @param args The command line arguments.
      * @throws InterruptedException If the server is interrupted while waiting for
@@ -32,14 +107,80 @@ public class WordleServer {
      */
     public static void main(String[] args) throws InterruptedException {
 
-        final int port = 8021; // Specify the port number for the server
-        ExecutorService threadPool = Executors.newFixedThreadPool(Integer.parseInt(args[0]));
-        try (ServerSocket serverSocket = new ServerSocket(port)) {
-            System.out.println("Server started on port " + port);
+        final int port = Integer.parseInt(option(args, "port", "8021"));
+        String[] positional = positionalArguments(args);
+        String mode = positional.length > 1 ? positional[1] : "blocking";
+        HtmlContainer.preload(imagePath);
+        String seed = option(args, "seed", null);
+        if (seed != null) {
+            targets = new TargetPicker(WordleDictionary.size(), Long.parseLong(seed));
+        }
+        sessions = new SessionTable(WordleServer::pickTarget, SESSION_MAX_AGE * 1000L,
+                Integer.parseInt(option(args, "max-sessions", DEFAULT_MAX_SESSIONS)));
+        if (option(args, "sessions", "table").equals("cookie")) {
+            String keyFile = option(args, "keys", null);
+            try {
+                cookieSealer = keyFile != null ? new GameCookieSealer(keyFile, SESSION_MAX_AGE * 1000L)
+                        : new GameCookieSealer(SESSION_MAX_AGE * 1000L);
+            } catch (IOException e) {
+                System.out.println("Server exception: " + e.getMessage());
+                return;
+            }
+        } else {
+            String walDirectory = option(args, "wal", null);
+            if (walDirectory != null) {
+                try {
+                    sessionLog = new SessionLog(sessions, walDirectory, option(args, "fsync", "always"));
+                } catch (IOException | IllegalArgumentException e) {
+                    System.out.println("Server exception: " + e.getMessage());
+                    return;
+                }
+            }
+            sessions.start();
+            String cluster = option(args, "cluster", null);
+            if (cluster != null) {
+                try {
+                    String keyFile = option(args, "cluster-key", null);
+                    if (keyFile != null) {
+                        clusterKey = new ClusterKey(keyFile);
+                    }
+                    joinCluster(cluster, option(args, "node", "localhost:" + port));
+                } catch (IOException | IllegalArgumentException e) {
+                    System.out.println("Server exception: " + e.getMessage());
+                    return;
+                }
+            }
+        }
+        ExecutorService threadPool = mode.equals("virtual") ? newVirtualThreadExecutor()
+                : Executors.newFixedThreadPool(Integer.parseInt(positional[0]));
+        if (threadPool == null) {
+            System.out.println("Server exception: virtual threads are not available on Java "
+                    + Runtime.version().feature() + ", use the blocking or nio mode");
+            return;
+        }
+        if (mode.equals("blocking")) {
+            keepAliveSlots = new Semaphore(Integer.parseInt(positional[0]) - 1);
+        }
+        if (mode.equals("nio")) {
+            int loops = positional.length > 2 ? Integer.parseInt(positional[2])
+                    : Runtime.getRuntime().availableProcessors();
+            try {
+                new NioServer(port, loops, threadPool).run();
+            } catch (IOException e) {
+                System.out.println("Server exception: " + e.getMessage());
+            } finally {
+                System.out.println("Server stopped");
+                threadPool.shutdown();
+            }
+            return;
+        }
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(port));
+            System.out.println("Server started on port " + port + " (" + mode + ")");
             while (true) {
-                Socket clientSocket = serverSocket.accept();
-                threadPool.submit(() -> handleRequest(clientSocket));
-                clientSocket.setSoTimeout(300000);
+                SocketChannel clientChannel = serverChannel.accept();
+                clientChannel.socket().setSoTimeout(300000);
+                threadPool.submit(() -> handleRequest(clientChannel));
             }
         } catch (IOException e) {
             System.out.println("Server exception: " + e.getMessage());
@@ -50,91 +191,282 @@ public class WordleServer {
     }
 
     /**
-     * Handles a client request by reading the request, processing it, and sending
-     * the response.
-     * 
-     * @param clientSocket The socket representing the client connection.
+     * Builds the ring of the cluster and a client for every other node.
+     *
+     * @param nodes The nodes, as {@code host:port} separated by commas.
+     * @param self  This node, as listed.
+     * @throws IllegalArgumentException If a node is invalid or unknown, or this
+     *                                  node is not listed.
      */
-    private static void handleRequest(Socket clientSocket) {
-        String rightWord = null;
-        boolean noCookie = false;
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-                OutputStream outputStream = clientSocket.getOutputStream()) {
-            char[] buffer = new char[1024];
-            String request = reader.readLine();
-            String body = "";
-            Map<String, String> headers = new HashMap<>();
-            String line;
-            while ((line = reader.readLine()) != null && !line.isEmpty()) {
-                String[] headerParts = line.split(": ");
-                if (headerParts.length == 2) {
-                    String headerName = headerParts[0];
-                    String headerValue = headerParts[1];
-                    headers.put(headerName, headerValue);
-                }
-            }
-            int bufferSize = 0;
-            if (headers.containsKey("Content-Length")) {
-                bufferSize = Integer.parseInt(headers.get("Content-Length"));
-                buffer = new char[bufferSize];
+    private static void joinCluster(String nodes, String self) {
+        ring = new HashRing(java.util.Arrays.asList(nodes.split(",")));
+        selfNode = ring.indexOf(self);
+        if (selfNode < 0) {
+            throw new IllegalArgumentException("This node, " + self + ", is not in the cluster " + nodes);
+        }
+        nodeClients = new NodeClient[ring.size()];
+        for (int i = 0; i < ring.size(); i++) {
+            if (i != selfNode) {
+                nodeClients[i] = new NodeClient(ring.node(i), clusterKey);
             }
-            String sessionCookie = null;
-            if (headers.containsKey("Cookie")) {
-                sessionCookie = getSessionCookie(headers.get("Cookie"));
+        }
+        System.out.println("Node " + self + " of a cluster of " + ring.size());
+    }
+
+    /**
+     * Picks a new session ID. In the cluster mode, IDs are drawn until one is
+     * owned by this node, so the game starts where the next guesses are sent.
+     *
+     * @param id Receives the high bits, then the low bits.
+     */
+    private static void newSessionId(long[] id) {
+        do {
+            SessionIdGenerator.next(id);
+        } while (ring != null && ring.owner(id[0], id[1]) != selfNode);
+    }
+
+    /**
+     * Returns the value of a {@code --name=value} command line option.
+     *
+     * @param args         The command line arguments.
+     * @param name         The option name.
+     * @param defaultValue The value if the option is absent.
+     * @return The option value.
+     */
+    private static String option(String[] args, String name, String defaultValue) {
+        String prefix = "--" + name + "=";
+        for (String arg : args) {
+            if (arg.startsWith(prefix)) {
+                return arg.substring(prefix.length());
             }
-            // Read the rest of the request
-            int i = 0;
-            if (bufferSize > 0) {
-                while (i < bufferSize) {
-                    int read = reader.read(buffer, i, bufferSize - i);
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Returns the command line arguments that are not options.
+     *
+     * @param args The command line arguments.
+     * @return The arguments not starting with {@code --}.
+     */
+    private static String[] positionalArguments(String[] args) {
+        return java.util.Arrays.stream(args).filter(arg -> !arg.startsWith("--")).toArray(String[]::new);
+    }
+
+    /**
+     * Picks the word to find in a new game.
+     *
+     * @return The {@link WordleDictionary} index of the word.
+     */
+    static int pickTarget() {
+        return targets.getAsInt();
+    }
+
+    /**
+     * Returns an executor starting one virtual thread per task. Virtual threads
+     * are looked up reflectively so the server still compiles and runs on JDKs
+     * without them, where the virtual mode is refused: one platform thread per
+     * connection instead would start as many OS threads as there are clients.
+     *
+     * @return The per-task executor, or null if virtual threads are not
+     *         available.
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Handles a client connection by reading requests, processing them, and
+     * sending the responses. Requests are parsed in place in a buffer reused for
+     * the whole connection, and served one after the other, including pipelined
+     * ones, until the client asks to close or stays idle for longer than
+     * {@link #KEEP_ALIVE_TIMEOUT}. Reads go through the socket stream, which
+     * honours the read timeout, and responses are written to the channel. In
+     * the blocking mode, a connection is only kept alive while it holds one of
+     * the keep-alive slots.
+     * 
+     * @param clientChannel The channel representing the client connection.
+     */
+    private static void handleRequest(SocketChannel clientChannel) {
+        Socket clientSocket = clientChannel.socket();
+        // Whether the connection holds a keep-alive slot of the blocking mode
+        boolean slot = false;
+        try (SocketChannel channel = clientChannel;
+                InputStream inputStream = clientSocket.getInputStream()) {
+            HttpRequest request = new HttpRequest();
+            ByteBuffer buffer = ByteBuffer.allocate(HttpRequest.INITIAL_BUFFER_SIZE);
+            boolean keepAlive = true;
+            while (keepAlive) {
+                int end;
+                while ((end = request.parse(buffer, 0, buffer.position())) == HttpRequest.INCOMPLETE) {
+                    buffer = HttpRequest.ensureSpace(buffer);
+                    if (buffer == null) {
+                        end = HttpRequest.MALFORMED;
+                        break;
+                    }
+                    int read = inputStream.read(buffer.array(), buffer.position(), buffer.remaining());
                     if (read == -1) {
-                        System.err.println("read == -1");
+                        return;
                     }
-                    i += read;
+                    buffer.position(buffer.position() + read);
                 }
-            }
-            body = new String(buffer);
-            if (request != null) {
-                String[] requestParts = request.split(" ");
-                String method = requestParts[0];
-                String path = requestParts[1];
-                if (sessionCookie == null) {
-                    noCookie = true;
-                    sessionCookie = java.util.UUID.randomUUID().toString();
+                if (end == HttpRequest.MALFORMED) {
+                    sendResponse(channel, "Invalid request : malformed request", 400, false);
+                    return;
                 }
-                if (!sessionMap.containsKey(sessionCookie)) {
-                    attemptsMap.put(sessionCookie, new java.util.ArrayList<>());
-                    sessionMap.put(sessionCookie,
-                            wordSet.stream().skip((int) (wordSet.size() * Math.random())).findFirst().get()
-                                    .toUpperCase());
+                if (!slot && keepAliveSlots != null && request.isKeepAlive()) {
+                    slot = keepAliveSlots.tryAcquire();
                 }
+                keepAlive = processRequest(request, channel, slot || keepAliveSlots == null);
+                HttpRequest.consume(buffer, end);
+                clientSocket.setSoTimeout(KEEP_ALIVE_TIMEOUT);
+            }
+        } catch (SocketTimeoutException e) {
+            // Idle connection, closing it is all there is to do
+        } catch (IOException e) {
+            System.out.println("Problem : " + e.getMessage());
+        } finally {
+            if (slot) {
+                keepAliveSlots.release();
+            }
+        }
+    }
 
-                rightWord = sessionMap.get(sessionCookie);
-                String query = "";
-                if (path.contains("?")) {
-                    String[] pathParts = path.split("\\?");
-                    path = pathParts[0];
-                    query = pathParts[1];
-                }
-                if (method.equals("POST")) {
-                    // Get the body of the post method and search for the guess parameter
-                    // substring what's atfter guess=, which is the guess of 5 letters
-                    query = body;
-                    handlePostRequest(outputStream, sessionCookie, query, rightWord, noCookie);
-                } else if (method.equals("GET") && (path.equals("/") || path.equals("/index.html"))) {
-                    handleRedirect(outputStream, sessionCookie);
-                } else if (method.equals("GET") && path.equals("/play.html")
-                        && query.toLowerCase().contains("guess=")) {
-                    playWordle(outputStream, sessionCookie, query, rightWord, "GET", noCookie);
-                } else if (method.equals("GET")) {
-                    handleGetRequest(outputStream, path);
-                } else {
-                    sendResponse(outputStream, "Invalid request : not a GET nor a POST method", 400);
+    /**
+     * Processes a parsed request: resolves the game session and dispatches to
+     * the right handler. Shared by the blocking front end and the
+     * {@link NioServer} front end. Routing compares the request bytes in place,
+     * a guess is read and looked up in the dictionary on the request bytes, and
+     * only the cookie and the path of a page become Strings.
+     *
+     * @param request      The parsed request.
+     * @param channel The channel to send the response to.
+     * @return true if the connection can be kept open for another request.
+     * @throws IOException If an I/O error occurs while sending the response.
+     */
+    static boolean processRequest(HttpRequest request, GatheringByteChannel channel) throws IOException {
+        return processRequest(request, channel, true);
+    }
+
+    /**
+     * Processes a parsed request, closing the connection after the response
+     * whatever the client asked when it cannot be kept alive.
+     *
+     * @param request      The parsed request.
+     * @param channel      The channel to send the response to.
+     * @param mayKeepAlive Indicates if the connection may be kept open.
+     * @return true if the connection can be kept open for another request.
+     * @throws IOException If an I/O error occurs while sending the response.
+     */
+    static boolean processRequest(HttpRequest request, GatheringByteChannel channel, boolean mayKeepAlive)
+            throws IOException {
+        boolean keepAlive = mayKeepAlive && request.isKeepAlive();
+        if (request.methodIs("GET")) {
+            // Static files do not need a game session
+            for (String[] route : STATIC_ROUTES) {
+                if (request.pathIs(route[0])) {
+                    handleStaticFile(channel, request, route[1], keepAlive);
+                    return keepAlive;
                 }
             }
-            clientSocket.close();
+            if (request.pathIs("/stats")) {
+                handleStats(channel, keepAlive);
+                return keepAlive;
+            }
+        }
+        int encoding = Compression.negotiate(request);
+        boolean guess = request.methodIs("POST") || request.methodIs("GET") && request.pathIs("/play.html")
+                && request.queryContainsIgnoreCase("guess=");
+        int code = -1;
+        if (guess) {
+            // Only a word of the dictionary is worth a session and a page, the
+            // guess is looked up on the request bytes
+            code = request.wordParameter("guess");
+            if (code < 0) {
+                rejectedGuesses.increment();
+                sendRejectedGuess(channel, request.methodIs("POST"), keepAlive, encoding);
+                return keepAlive;
+            }
+            acceptedGuesses.increment();
+        }
+        boolean noCookie = false;
+        String sessionCookie = request.sessionId();
+        long[] sessionId = SESSION_ID.get();
+        if (cookieSealer == null && !SessionIdGenerator.parse(sessionCookie, sessionId)) {
+            // Games are keyed by a 128-bit ID, a cookie that is not one is replaced
+            noCookie = true;
+            newSessionId(sessionId);
+        }
+        if (guess && ring != null && !noCookie && !request.isForwarded(clusterKey)) {
+            int owner = ring.owner(sessionId[0], sessionId[1]);
+            if (owner != selfNode) {
+                return forwardRequest(request, channel, owner, keepAlive);
+            }
+        }
+        // Only a guess needs a game, a cookie sent with the page or the redirect
+        // gets its session with the first guess
+        if (request.methodIs("POST")) {
+            handlePostRequest(channel, sessionCookie, sessionId, code, noCookie, keepAlive, encoding,
+                    request.acceptsChunked());
+        } else if (request.methodIs("GET") && (request.pathIs("/") || request.pathIs("/index.html"))) {
+            handleRedirect(channel, sessionCookie, sessionId, noCookie, keepAlive);
+        } else if (guess) {
+            playWordle(channel, sessionCookie, sessionId, code, "GET", noCookie, keepAlive, encoding, false);
+        } else if (request.methodIs("GET")) {
+            handleGetRequest(channel, request.pathString(), keepAlive, encoding);
+        } else {
+            sendResponse(channel, "Invalid request : not a GET nor a POST method", 400, keepAlive);
+        }
+        return keepAlive;
+    }
+
+    /**
+     * Answers a guess that is not a word of the dictionary. The answer is the
+     * same for every such guess and is never rendered again: a 400 for the
+     * script of the page, the page with a notice for the form.
+     *
+     * @param channel   The channel to send the response to.
+     * @param form      Indicates if the guess comes from the form, without
+     *                  javascript.
+     * @param keepAlive Indicates if the connection stays open after the
+     *                  response.
+     * @param encoding  The {@link Compression} coding accepted by the client.
+     * @throws IOException If an I/O error occurs while sending the response.
+     */
+    private static void sendRejectedGuess(GatheringByteChannel channel, boolean form, boolean keepAlive, int encoding)
+            throws IOException {
+        if (form) {
+            new HttpResponse(200).header(HttpResponse.TEXT_HTML).header(Compression.VARY_ACCEPT_ENCODING)
+                    .body(HtmlContainer.getRejectedPageBytes(imagePath, encoding), encoding)
+                    .send(channel, keepAlive);
+        } else {
+            new HttpResponse(400).header(HttpResponse.TEXT_HTML_UTF8).body(NOT_A_WORD).send(channel, keepAlive);
+        }
+    }
+
+    /**
+     * Forwards a guess to the node owning its session, answering 502 if the node
+     * cannot be reached.
+     *
+     * @param request   The parsed request.
+     * @param channel   The channel to send the response to.
+     * @param owner     The number of the owning node.
+     * @param keepAlive Indicates if the client asked to keep the connection.
+     * @return true if the connection can be kept open for another request.
+     * @throws IOException If an I/O error occurs while sending the response.
+     */
+    private static boolean forwardRequest(HttpRequest request, GatheringByteChannel channel, int owner,
+            boolean keepAlive) throws IOException {
+        try {
+            return nodeClients[owner].forward(request, channel, keepAlive);
         } catch (IOException e) {
-            System.out.println("Problem : " + e.getMessage());
+            System.out.println("Problem : node " + nodeClients[owner] + " unreachable, " + e.getMessage());
+            sendResponse(channel, "Invalid request : the node of this session is unreachable", 502, keepAlive);
+            return keepAlive;
         }
     }
 
@@ -142,309 +474,264 @@ public class WordleServer {
      * Plays the Wordle game by processing the client's guess and sending the
      * response.
      * 
-     * @param outputStream  The output stream to send the response to the client.
+     * @param channel       The channel to send the response to the client.
      * @param sessionCookie The session cookie associated with the game session.
-     * @param query         The query string containing the client's guess.
-     * @param rightWord     The correct word for the game session.
+     * @param sessionId     The session ID, high then low bits, when the games
+     *                      are kept in the table.
+     * @param code          The guess, a word of the {@link WordleDictionary}
+     *                      packed by {@link WordleDictionary#encode}.
      * @param method        The HTTP method used in the request.
-     * @param noCookie      Indicates if the client has a session cookie.
+     * @param noCookie      Indicates if the session ID is new and must be set
+     *                      as a cookie.
+     * @param keepAlive     Indicates if the connection stays open after the
+     *                      response.
+     * @param encoding      The {@link Compression} coding accepted by the client.
+     * @param chunked       Indicates if the page can be streamed with the chunked
+     *                      transfer coding.
      * @throws IOException If an I/O error occurs while sending the response.
      */
-    private static void playWordle(OutputStream outputStream, String sessionCookie, String query, String rightWord,
-            String method, boolean noCookie)
-            throws IOException {
-        String guess = query.split("=")[1].toUpperCase();
-        if (guess.length() != 5) {
-            if (method.equals("GET"))
-                sendResponse(outputStream, "Invalid request : guess must be 5 letters", 400);
-            else if (method.equals("POST")) {
-                HtmlContainer htmlContainer = new HtmlContainer(imagePath);
-                htmlContainer.updateGuessSection("BBBBB", guess);
-                String response = htmlContainer.getHtml();
-                String httpResponse = "HTTP/1.1 200 OK\r\n"
-                        + "Content-Type: text/html\r\n"
-                        + "Content-Length: " + response.length() + "\r\n";
-                httpResponse += "Connection: close\r\n\r\n" + response;
-                outputStream.write(httpResponse.getBytes());
-                outputStream.flush();
+    private static void playWordle(GatheringByteChannel channel, String sessionCookie, long[] sessionId, int code,
+            String method, boolean noCookie, boolean keepAlive, int encoding, boolean chunked) throws IOException {
+        String guess = WordleDictionary.decode(code, new StringBuilder(5)).toString();
+        long[] game = GAME_STATE.get();
+        long idHigh = 0;
+        long idLow = 0;
+        int attempts;
+        if (cookieSealer != null) {
+            // The game comes with the request, nothing is looked up
+            if (!cookieSealer.open(sessionCookie, game)) {
+                PackedGame.start(pickTarget(), game);
             }
-            return;
+            attempts = PackedGame.addAttempt(game, code);
+        } else {
+            // The game is read and updated in the off-heap table, without any object
+            idHigh = sessionId[0];
+            idLow = sessionId[1];
+            attempts = sessions.addAttempt(idHigh, idLow, code, game);
         }
-        // check if guess is alphabetical
-        for (int i = 0; i < guess.length(); i++) {
-            if (!Character.isLetter(guess.charAt(i))) {
-                if (method.equals("GET"))
-                    sendResponse(outputStream, "Invalid request : guess must be alphabetical", 400);
-                else if (method.equals("POST")) {
-                    HtmlContainer htmlContainer = new HtmlContainer(imagePath);
-                    htmlContainer.updateGuessSection("", guess);
-                    String response = htmlContainer.getHtml();
-                    String httpResponse = "HTTP/1.1 200 OK\r\n"
-                            + "Content-Type: text/html\r\n"
-                            + "Content-Length: " + response.length() + "\r\n";
-                    httpResponse += "Connection: close\r\n\r\n" + response;
-                    outputStream.write(httpResponse.getBytes());
-                    outputStream.flush();
+        if (attempts == 0) {
+            HttpResponse httpResponse = new HttpResponse(400).header(HttpResponse.TEXT_HTML_UTF8);
+            if (cookieSealer != null) {
+                // Drop the cookie, the next guess starts a new game
+                httpResponse.header("Set-Cookie", "SESSIONID=; Max-Age=0; SameSite=Strict");
+            } else {
+                sessions.remove(idHigh, idLow);
+                if (!awaitDurable(channel, keepAlive)) {
+                    return;
                 }
-                return;
             }
-        }
-        if (attemptsMap.get(sessionCookie).size() >= 6) {
-            sendResponse(outputStream, "Invalid request : you already tried too many Words", 400);
-            sessionMap.remove(sessionCookie);
-            attemptsMap.remove(sessionCookie);
+            httpResponse.body("Invalid request : you already tried too many Words").send(channel, keepAlive);
             return;
         }
-        attemptsMap.get(sessionCookie).add(guess);
-        char[] result = new char[5];
-        Map<Character, Integer> map = new HashMap<>();
-        /*
-         * System.out.println("----------------------");
-         * System.out.println("Right word: |" + rightWord + "|");
-         * System.out.println("Query: |" + guess + "|");
-         * System.out.println("Session cookie: " + sessionCookie);
-         */
-        String response = "";
-        StringBuilder stringBuilder = new StringBuilder();
-        if (!guess.equals(rightWord)) {
-            // Add the letters of the word to the map
-            // If a letter is already in the map, increment the value
-            for (int i = 0; i < rightWord.length(); i++) {
-                char c = rightWord.charAt(i);
-                if (map.containsKey(c)) {
-                    map.put(c, map.get(c) + 1);
-                } else {
-                    map.put(c, 1);
-                }
-            }
-            // Loop on the guess
-            // If the letter is in the right place, add G to the array of char at his
-            // location
-            // If the letter is not in the word, add B to the array of char at his location
-            for (int i = 0; i < guess.length(); i++) {
-                char c = guess.charAt(i);
-                if (rightWord.charAt(i) == c) {
-                    result[i] = 'G';
-                    map.put(c, map.get(c) - 1);
-                } else {
-                    result[i] = 'B';
-                }
-            }
-            // Loop on the guess
-            // If the letter is not in the right place, check in the map has a value > 0
-            // If yes, add Y to the array of char at his location and decrement the value in
-            // the map
-            // If no, do nothing
-            for (int i = 0; i < guess.length(); i++) {
-                char c = guess.charAt(i);
-                if (rightWord.charAt(i) != c) {
-                    if (map.containsKey(c) && map.get(c) > 0) {
-                        result[i] = 'Y';
-                        map.put(c, map.get(c) - 1);
-                    }
-                }
-            }
-            stringBuilder = new StringBuilder();
-            for (char c : result) {
-                stringBuilder.append(c);
+        // The pattern of the guess, scored on the packed words
+        int score = WordleScorer.score(code, WordleDictionary.code(PackedGame.targetIndex(game)));
+        boolean found = score == WordleScorer.ALL_GREEN;
+        HttpResponse httpResponse = new HttpResponse(200).header(HttpResponse.TEXT_HTML)
+                .header(Compression.VARY_ACCEPT_ENCODING);
+        if (cookieSealer != null) {
+            // The cookie is the game, it changes with every guess
+            String sealed = found ? "" : cookieSealer.seal(game);
+            httpResponse.header("Set-Cookie", "SESSIONID=" + sealed + "; Max-Age="
+                    + (sealed.isEmpty() ? 0 : SESSION_MAX_AGE) + "; SameSite=Strict");
+        } else if (noCookie) {
+            httpResponse.header(SessionIdGenerator.setCookieLine(idHigh, idLow));
+        }
+        String pattern = WordleScorer.appendPattern(score, new StringBuilder(5)).toString();
+        // Create response for the client, composed by the result and all attempts
+        StringBuilder json = new StringBuilder(64).append("{\"result\":\"").append(pattern);
+        if (found) {
+            json.append(" GAMEOVER");
+            if (cookieSealer == null) {
+                sessions.remove(idHigh, idLow);
             }
-
-            // Create response for the client, composed by the result and all attempts
-            response = "{\"result\":\"" + stringBuilder.toString() + "\",\"attempts\":" + attemptsMap.get(sessionCookie)
-                    + "}";
-        } else {
-            response = "{\"result\":\"" + "GGGGG GAMEOVER" + "\",\"attempts\":" + attemptsMap.get(sessionCookie)
-                    + "}";
-            sessionMap.remove(sessionCookie);
-            attemptsMap.remove(sessionCookie);
+        }
+        PackedGame.appendAttempts(game, attempts, json.append("\",\"attempts\":")).append('}');
+        // Never answer a guess a restart could forget, nor start its page before
+        if (cookieSealer == null && !awaitDurable(channel, keepAlive)) {
+            return;
         }
 
-        String httpResponse = "";
-        if (method.equals("GET")) {
-            httpResponse = "HTTP/1.1 200 OK\r\n"
-                    + "Content-Type: text/html\r\n"
-                    + "Content-Length: " + response.length() + "\r\n";
-        } else if (method.equals("POST")) {
-            // send the response to the client without using javascript
-            HtmlContainer htmlContainer = new HtmlContainer(imagePath);
-            htmlContainer.updateGuessSection(stringBuilder.toString(), guess);
-            /*
-             * CHUNKED CODE :
-             * response = getChunkResponse(htmlContainer.getHtml());
-             * httpResponse = "HTTP/1.1 200 OK\r\n"
-             * + "Content-Type: text/html\r\n"
-             * + "Transfer-Encoding: chunked" + "\r\n";
-             */
-            response = htmlContainer.getHtml();
-            httpResponse = "HTTP/1.1 200 OK\r\n"
-                    + "Content-Type: text/html\r\n"
-                    + "Content-Length: " + response.length() + "\r\n";
+        if (method.equals("POST") && chunked) {
+            // Only the guess section is compressed, the rest of the page is cached compressed
+            try (OutputStream page = httpResponse.sendChunked(channel, keepAlive, encoding)) {
+                HtmlContainer.writeGuessPage(page, imagePath, pattern, guess, encoding);
+            }
+            return;
         }
-        if (noCookie) {
-            httpResponse += "Set-Cookie: SESSIONID=" + sessionCookie + "; Max-Age=1800; SameSite=Strict\r\n"
-                    + "Connection: close"
-                    + "\r\n\r\n"
-                    + response;
+        if (method.equals("POST")) {
+            // send the response to the client without using javascript, only the
+            // guess section is formatted around the cached page
+            httpResponse.body(HtmlContainer.getGuessPageBytes(imagePath, pattern, guess), encoding);
         } else {
-            httpResponse += "Connection: close\r\n\r\n" + response;
+            httpResponse.body(json.toString(), encoding);
         }
-        try {
-            // System.out.println("Response: " + httpResponse);
-            outputStream.write(httpResponse.getBytes());
-            outputStream.flush();
-            // outputStream.close();
+        httpResponse.send(channel, keepAlive);
+    }
 
-        } catch (Exception e) {
-            System.out.println("Problem       " + e.getMessage());
+    /**
+     * Waits until the changes made to the table are durable, before anything of
+     * the answer is sent. If the log could not write them, the guess is answered
+     * with a 503 so the client does not take it as saved.
+     *
+     * @param channel   The channel to send the response to.
+     * @param keepAlive Indicates if the connection stays open after the
+     *                  response.
+     * @return true if the answer can be sent.
+     * @throws IOException If an I/O error occurs while sending the 503.
+     */
+    private static boolean awaitDurable(GatheringByteChannel channel, boolean keepAlive) throws IOException {
+        try {
+            sessions.awaitDurable();
+            return true;
+        } catch (IOException e) {
+            sendResponse(channel, "Service unavailable : the guess could not be saved", 503, keepAlive);
+            return false;
         }
     }
 
     /**
      * Handles the redirect request by sending a 302 response to the client.
      *
-     * @param outputStream  The output stream used to send the response to the
-     *                      client.
+     * @param channel       The channel used to send the response to the client.
      * @param sessionCookie The session cookie for the current user.
+     * @param sessionId     The session ID, high then low bits, when the games
+     *                      are kept in the table.
+     * @param noCookie      Indicates if the session ID is new and must be set
+     *                      as a cookie.
+     * @param keepAlive     Indicates if the connection stays open after the
+     *                      response.
      * @throws IOException If an I/O error occurs while handling the request.
      */
-    private static void handleRedirect(OutputStream outputStream, String sessionCookie) throws IOException {
-        String httpResponse = "HTTP/1.1 302 Found\r\n"
-                + "Location: /play.html\r\n";
-        if (sessionCookie != null)
-            httpResponse += "Set-Cookie: SESSIONID=" + sessionCookie + "; Max-Age=1800; SameSite=Strict\r\n\r\n";
-        outputStream.write(httpResponse.getBytes());
-        outputStream.flush();
+    private static void handleRedirect(GatheringByteChannel channel, String sessionCookie, long[] sessionId,
+            boolean noCookie, boolean keepAlive) throws IOException {
+        HttpResponse httpResponse = new HttpResponse(302).header(LOCATION_PLAY);
+        if (noCookie)
+            httpResponse.header(SessionIdGenerator.setCookieLine(sessionId[0], sessionId[1]));
+        else if (sessionCookie != null)
+            httpResponse.header("Set-Cookie", "SESSIONID=" + sessionCookie + "; Max-Age=" + SESSION_MAX_AGE
+                    + "; SameSite=Strict");
+        httpResponse.send(channel, keepAlive);
     }
 
     /**
-     * Handles the GET request by generating and sending an HTML response to the
-     * client.
+     * Handles the GET request by sending the cached HTML page to the client.
      *
-     * @param outputStream The output stream used to send the response to the
-     *                     client.
-     * @param path         The path of the requested resource.
+     * @param channel   The channel used to send the response to the client.
+     * @param path      The path of the requested resource.
+     * @param keepAlive Indicates if the connection stays open after the
+     *                  response.
+     * @param encoding  The {@link Compression} coding accepted by the client.
      * @throws IOException If an I/O error occurs while handling the request.
      */
-    private static void handleGetRequest(OutputStream outputStream, String path) throws IOException {
-        try {
-            // byte[] bytes = readAllBytes(filePath);
-            // String mimeType = getMimeType(filePath);
-            HtmlContainer container = new HtmlContainer(imagePath);
-            String html = container.getHtml();
-            /*
-             * String httpResponse = "HTTP/1.1 200 OK\r\n"
-             * + "Content-Type: text/html\r\n"
-             * + "Transfer-Encoding: chunked\r\n"
-             * + "Connection: close"
-             * + "\r\n\r\n" + getChunkResponse(html);
-             */
-            String httpResponse = "HTTP/1.1 200 OK\r\n"
-                    + "Content-Type: text/html\r\n"
-                    + "Content-Length: " + html.length() + "\r\n"
-                    + "Connection: close"
-                    + "\r\n\r\n" + html;
-
-            outputStream.write(httpResponse.getBytes());
-            outputStream.flush();
-        } catch (IOException e) {
-            sendResponse(outputStream, "File not found", 404);
-        }
+    private static void handleGetRequest(GatheringByteChannel channel, String path, boolean keepAlive,
+            int encoding) throws IOException {
+        // byte[] bytes = readAllBytes(filePath);
+        // String mimeType = getMimeType(filePath);
+        // The page is rendered, encoded and compressed once, only the buffer is shared
+        new HttpResponse(200).header(HttpResponse.TEXT_HTML).header(Compression.VARY_ACCEPT_ENCODING)
+                .body(HtmlContainer.getPageBytes(imagePath, encoding), encoding).send(channel, keepAlive);
     }
 
     /**
-     * Handles a POST request by playing the Wordle game.
+     * Handles a GET request for a static file. The response can be cached
+     * forever when the URL carries the version of the file, as the page links the
+     * logo, and for a short time otherwise, as for the favicon. A client
+     * revalidating its copy gets a 304 without the body.
      *
-     * @param outputStream  The output stream to write the response to.
-     * @param sessionCookie The session cookie for the current user.
-     * @param query         The query string of the request.
-     * @param rightWord     The correct word for the Wordle game.
-     * @param noCookie      Indicates whether the request has a session cookie or
-     *                      not.
+     * @param channel   The channel used to send the response to the client.
+     * @param request   The parsed request, for its validators.
+     * @param fileName  The path of the file to send.
+     * @param keepAlive Indicates if the connection stays open after the
+     *                  response.
      * @throws IOException If an I/O error occurs while handling the request.
      */
-    private static void handlePostRequest(OutputStream outputStream, String sessionCookie, String query,
-            String rightWord, boolean noCookie) throws IOException {
-        // print all method
-        playWordle(outputStream, sessionCookie, query, rightWord, "POST", noCookie);
+    private static void handleStaticFile(GatheringByteChannel channel, HttpRequest request, String fileName,
+            boolean keepAlive) throws IOException {
+        StaticFile file = StaticFile.get(fileName);
+        if (file == null) {
+            sendResponse(channel, "File not found", 404, keepAlive);
+            return;
+        }
+        boolean notModified = file.isNotModified(request);
+        HttpResponse httpResponse = new HttpResponse(notModified ? 304 : 200)
+                .header(file.getEtagHeader())
+                .header(file.getLastModifiedHeader())
+                .header(file.getCacheControlHeader(request));
+        if (!notModified) {
+            httpResponse.header(file.getContentTypeHeader()).body(file.getBytes());
+        }
+        httpResponse.send(channel, keepAlive);
     }
 
     /**
-     * Sends an HTTP response to the output stream.
+     * Sends the session counters as plain text.
      *
-     * @param outputStream The output stream to send the response to.
-     * @param response     The response message to be sent.
-     * @param statusCode   The status code of the response.
-     * @throws IOException If an I/O error occurs while sending the response.
+     * @param channel   The channel used to send the response to the client.
+     * @param keepAlive Indicates if the connection stays open after the
+     *                  response.
+     * @throws IOException If an I/O error occurs while handling the request.
      */
-    private static void sendResponse(OutputStream outputStream, String response, int statusCode) throws IOException {
-        /*
-         * CHUNKED CODE :
-         * String httpResponse = "HTTP/1.1 " + statusCode + " " +
-         * getStatusCodeMessage(statusCode) + "\r\n"
-         * + "Content-Type: text/html;charset=UTF-8\r\n"
-         * + "Transfer-Encoding: chunked\r\n\r\n"
-         * + getChunkResponse(response);
-         * outputStream.write(httpResponse.getBytes());
-         */
-        String httpResponse = "HTTP/1.1 " + statusCode + " " + getStatusCodeMessage(statusCode) + "\r\n"
-                + "Content-Type: text/html;charset=UTF-8\r\n"
-                + "Content-Length: " + response.length() + "\r\n\r\n"
-                + response;
-        outputStream.write(httpResponse.getBytes());
-        outputStream.flush();
+    private static void handleStats(GatheringByteChannel channel, boolean keepAlive) throws IOException {
+        String stats = "sessions.live " + sessions.getLiveCount() + "\n"
+                + "sessions.capacity " + sessions.getCapacity() + "\n"
+                + "sessions.expired " + sessions.getExpiredCount() + "\n"
+                + "sessions.evicted " + sessions.getEvictedCount() + "\n"
+                + "guesses.accepted " + acceptedGuesses.sum() + "\n"
+                + "guesses.rejected " + rejectedGuesses.sum() + "\n";
+        if (sessionLog != null) {
+            stats += "wal.records " + sessionLog.getRecordCount() + "\n"
+                    + "wal.frames " + sessionLog.getFrameCount() + "\n"
+                    + "wal.syncs " + sessionLog.getSyncCount() + "\n";
+        }
+        if (ring != null) {
+            long forwarded = 0;
+            long cutShort = 0;
+            for (NodeClient client : nodeClients) {
+                forwarded += client == null ? 0 : client.getForwardedCount();
+                cutShort += client == null ? 0 : client.getCutShortCount();
+            }
+            stats += "cluster.forwarded " + forwarded + "\n";
+            stats += "cluster.cut_short " + cutShort + "\n";
+        }
+        new HttpResponse(200).header(HttpResponse.TEXT_PLAIN).body(stats).send(channel, keepAlive);
     }
 
     /**
-     * CHUNKED CODE :
-     * Generates a chunked response for the HTML content.
-     * 
-     * @param response The HTML content to be sent in chunks.
-     * @return The formatted chunked response.
+     * Handles a POST request by playing the Wordle game.
+     *
+     * @param channel       The channel to write the response to.
+     * @param sessionCookie The session cookie for the current user.
+     * @param sessionId     The session ID, high then low bits, when the games
+     *                      are kept in the table.
+     * @param code          The guess, a packed word of the dictionary.
+     * @param noCookie      Indicates if the session ID is new and must be set
+     *                      as a cookie.
+     * @param keepAlive     Indicates if the connection stays open after the
+     *                      response.
+     * @param encoding      The {@link Compression} coding accepted by the client.
+     * @param chunked       Indicates if the page can be streamed with the chunked
+     *                      transfer coding.
+     * @throws IOException If an I/O error occurs while handling the request.
      */
-    private static String getChunkResponse(String response) {
-        String formattedResponse = "";
-
-        final int SIZE = 128; // Size of each chunk
-
-        for (int i = 0; i < response.length(); i += SIZE) {
-            // Calculate the size of the current chunk
-            int currentChunkSize = Math.min(SIZE, response.length() - i);
-
-            // Add the current chunk size in hexadecimal format, followed by a newline
-            formattedResponse += Integer.toHexString(currentChunkSize) + "\r\n";
-
-            // Add the current chunk itself, followed by a newline
-            for (int j = i; j < i + currentChunkSize; j++) {
-                formattedResponse += response.charAt(j);
-            }
-            formattedResponse += "\r\n";
-        }
-
-        // Add the last chunk with a size of 0 (indicating the end), followed by two
-        // newlines
-        formattedResponse += "0\r\n\r\n";
-
-        // Convert the result to a string
-        return formattedResponse;
+    private static void handlePostRequest(GatheringByteChannel channel, String sessionCookie, long[] sessionId,
+            int code, boolean noCookie, boolean keepAlive, int encoding, boolean chunked) throws IOException {
+        // print all method
+        playWordle(channel, sessionCookie, sessionId, code, "POST", noCookie, keepAlive, encoding, chunked);
     }
 
     /**
-     * Retrieves the session cookie from the given request.
+     * Sends an HTTP response to the output stream.
      *
-     * @param request the request string containing the cookies
-     * @return the session cookie value, or null if not found
+     * @param channel    The channel to send the response to.
+     * @param response   The response message to be sent.
+     * @param statusCode The status code of the response.
+     * @param keepAlive  Indicates if the connection stays open after the
+     *                   response.
+     * @throws IOException If an I/O error occurs while sending the response.
      */
-    private static String getSessionCookie(String request) {
-        String sessionCookie = null;
-        String[] cookies = request.split("; ");
-        for (String cookie : cookies) {
-            String[] parts = cookie.split("=");
-            if (parts.length == 2 && parts[0].equals("SESSIONID")) {
-                sessionCookie = parts[1];
-                break;
-            }
-        }
-        return sessionCookie;
+    static void sendResponse(GatheringByteChannel channel, String response, int statusCode, boolean keepAlive)
+            throws IOException {
+        new HttpResponse(statusCode).header(HttpResponse.TEXT_HTML_UTF8).body(response).send(channel, keepAlive);
     }
 
     /**
@@ -453,7 +740,7 @@ public class WordleServer {
      * @param statusCode the status code
      * @return the status code message
      */
-    private static String getStatusCodeMessage(int statusCode) {
+    static String getStatusCodeMessage(int statusCode) {
         switch (statusCode) {
             case 200:
                 return "OK";
@@ -461,6 +748,8 @@ public class WordleServer {
                 return "Found";
             case 303:
                 return "See Other";
+            case 304:
+                return "Not Modified";
             case 400:
                 return "Bad Request";
             case 404:
@@ -471,6 +760,10 @@ public class WordleServer {
                 return "Length Required";
             case 501:
                 return "Not Implemented";
+            case 502:
+                return "Bad Gateway";
+            case 503:
+                return "Service Unavailable";
             case 505:
                 return "HTTP Version Not Supported";
             case 500:
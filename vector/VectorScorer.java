@@ -0,0 +1,94 @@
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The VectorScorer class scores a guess against many packed words at once with
+ * the Vector API, as many words as the lanes of the widest int vector of the
+ * CPU: 16 with AVX-512, 8 with AVX2. {@link WordleScorer#scoreAll} uses it when
+ * it is available; it lives apart so the other classes build without the
+ * incubator module:
+ *
+ * <pre>
+ * javac --add-modules jdk.incubator.vector -cp . -d . vector/VectorScorer.java
+ * java --add-modules jdk.incubator.vector ...
+ * </pre>
+ *
+ * The letters of a packed word are 5-bit fields, and each lane works on the
+ * fields of its word with bit operations only, without any branch:
+ * <ul>
+ * <li>the fields of {@code guess ^ word} that are 0 are the letters in place;</li>
+ * <li>filling these fields of the word with 31, a value no letter has, leaves
+ * the occurrences a Y can take;</li>
+ * <li>a letter of the guess is Y when the word has more of these occurrences of
+ * it than the guess has earlier letters alike and out of place.</li>
+ * </ul>
+ * Counting the fields equal to a letter is a zero-field test followed by one
+ * multiplication adding up the 5 fields. The scores are exactly those of
+ * {@link WordleScorer#score}.
+ */
+public final class VectorScorer implements WordleScorer.Batch {
+
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Byte> BYTES = VectorSpecies.of(byte.class,
+            VectorShape.forBitSize(INTS.length() * Byte.SIZE));
+
+    // The low 4 bits, the high bit and the low bit of every field
+    private static final int LOW_BITS = 0xF7BDEF;
+    private static final int HIGH_BITS = 0x1084210;
+    private static final int ONES = 0x108421;
+
+    @Override
+    public void scoreAll(int guess, int[] answers, int count, byte[] scores, int offset) {
+        // The earlier letters alike of each letter of the guess, the same for
+        // every word, as the high bits of their fields
+        int[] alike = new int[5];
+        for (int k = 0; k < 5; k++) {
+            for (int j = 0; j < k; j++) {
+                if ((guess >>> (5 * j) & 0x1f) == (guess >>> (5 * k) & 0x1f)) {
+                    alike[k] |= 0x10 << (5 * j);
+                }
+            }
+        }
+        int bound = INTS.loopBound(count);
+        int i = 0;
+        for (; i < bound; i += INTS.length()) {
+            IntVector answer = IntVector.fromArray(INTS, answers, i);
+            // High bit of field k set when letter k is in place
+            IntVector greens = zeroFields(answer.lanewise(VectorOperators.XOR, guess));
+            IntVector free = answer.or(greens.lanewise(VectorOperators.LSHR, 4).mul(31));
+            IntVector misses = greens.not().and(HIGH_BITS);
+            IntVector score = IntVector.zero(INTS);
+            int weight = 1;
+            for (int k = 0; k < 5; k++, weight *= 3) {
+                int letter = guess >>> (5 * k) & 0x1f;
+                VectorMask<Integer> green = greens.and(0x10 << (5 * k)).compare(VectorOperators.NE, 0);
+                IntVector found = countFields(zeroFields(free.lanewise(VectorOperators.XOR, letter * ONES)));
+                VectorMask<Integer> yellow = alike[k] == 0 ? found.compare(VectorOperators.GT, 0)
+                        : found.compare(VectorOperators.GT, countFields(misses.and(alike[k])));
+                // Blends, as the masked add of a scalar is not compiled to vector
+                // instructions on JDK 17
+                score = score.add(IntVector.zero(INTS).blend(weight, yellow).blend(2 * weight, green));
+            }
+            ((ByteVector) score.convertShape(VectorOperators.I2B, BYTES, 0)).intoArray(scores, offset + i);
+        }
+        for (; i < count; i++) {
+            scores[offset + i] = (byte) WordleScorer.score(guess, answers[i]);
+        }
+    }
+
+    /** @return The high bit of every field that is 0 in each lane. */
+    private static IntVector zeroFields(IntVector fields) {
+        // Adding the low bits carries into the high bit unless they are all 0
+        return fields.and(LOW_BITS).add(LOW_BITS).or(fields).not().and(HIGH_BITS);
+    }
+
+    /** @return The number of high bits set in each lane. */
+    private static IntVector countFields(IntVector highBits) {
+        // The 5 bits moved to the low bits, then added up in bits 20 to 24
+        return highBits.lanewise(VectorOperators.LSHR, 4).mul(ONES).lanewise(VectorOperators.LSHR, 20).and(0x1f);
+    }
+}